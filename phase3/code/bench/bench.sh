@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./bench.sh flightDB 5432 user --iterations 5000
+rm -rf bin && mkdir -p bin
+javac -cp "../java/lib/postgresql-42.1.4.jar" -d bin/ ../java/src/*.java src/*.java
+java -cp "../java/lib/*:bin/" MechanicShopBenchmark $DBNAME $PORT $USER --data ../data "$@"
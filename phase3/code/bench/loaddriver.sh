@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./loaddriver.sh flightDB 5432 user --advisors 200 --duration 120
+rm -rf bin && mkdir -p bin
+javac -cp "../java/lib/postgresql-42.1.4.jar" -d bin/ ../java/src/*.java src/*.java
+java -Dmechanicshop.pool.max=${POOL_MAX:-32} -cp "../java/lib/*:bin/" LoadDriver $DBNAME $PORT $USER --data ../data "$@"
@@ -0,0 +1,311 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates many service advisors working against one database at once.
+ * Each advisor repeatedly picks a scenario from a weighted mix:
+ *
+ *   intake  the InsertServiceRequest path: customer lookup, car listing,
+ *           ownership probe and the request insert, issued through
+ *           AsyncShop so the three reads overlap
+ *   close   the CloseServiceRequest path for a request opened by an intake
+ *   report  one of reports 6-10
+ *
+ * Closed loop (the default) runs a fixed number of advisors back to back
+ * with a think time between operations.  Open loop (--rate) starts
+ * operations at a fixed arrival rate however long earlier ones take, and
+ * measures latency from the intended start, so queueing shows up in it.
+ * Every operation runs on its own virtual thread where the JVM has them
+ * (see TaskExecutors).
+ *
+ * Prints throughput and latency percentiles per scenario, failures by
+ * SQLState (40001 serialization failure, 40P01 deadlock, 55P03 lock not
+ * available) and the number of backends waiting on locks, sampled every
+ * second from pg_stat_activity.  Give the pool enough connections for the
+ * concurrency under test with -Dmechanicshop.pool.max.
+ *
+ * Usage: java LoadDriver <dbname> <port> <user> [--data dir] [--advisors n]
+ *            [--duration seconds] [--rate ops/s] [--think ms]
+ *            [--mix intake=60,close=25,report=15] [--no-seed]
+ *
+ */
+public class LoadDriver {
+	/**
+	 * A scenario of the mix with its weight and measurements.
+	 */
+	static class Scenario {
+		final String name;
+		final int weight;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong failures = new AtomicLong();
+
+		Scenario(String name, int weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+	}
+
+	private static final String LOCK_WAITERS =
+		"SELECT COUNT(*) FROM pg_stat_activity WHERE wait_event_type = 'Lock' AND datname = current_database()";
+
+	private final MechanicShop _esql;
+	private final AsyncShop _async;
+	private final List<Scenario> _mix = new ArrayList<Scenario>();
+	private int _totalWeight = 0;
+	//owns.csv rows as {customer_id, car_vin}
+	private final List<String[]> _ownership = new ArrayList<String[]>();
+	private final Map<String, String> _lastNames = new HashMap<String, String>();
+	private final List<Integer> _mechanics = new ArrayList<Integer>();
+	//requests opened by intakes and not yet closed
+	private final ConcurrentLinkedQueue<Integer> _openRequests = new ConcurrentLinkedQueue<Integer>();
+
+	private final AtomicLong _serializationFailures = new AtomicLong();
+	private final AtomicLong _deadlocks = new AtomicLong();
+	private final AtomicLong _lockTimeouts = new AtomicLong();
+	private final AtomicLong _otherFailures = new AtomicLong();
+	private final AtomicLong _lockWaitSamples = new AtomicLong();
+	private final AtomicLong _lockWaitSum = new AtomicLong();
+	private final AtomicLong _lockWaitMax = new AtomicLong();
+
+	LoadDriver(MechanicShop esql, String mix) {
+		this._esql = esql;
+		this._async = new AsyncShop(esql);
+		for (String part : mix.split(",")){
+			String[] kv = part.trim().split("=");
+			if (kv.length != 2)
+				throw new IllegalArgumentException("Expected name=weight in the mix: " + part);
+			String name = kv[0].trim();
+			if (!name.equals("intake") && !name.equals("close") && !name.equals("report"))
+				throw new IllegalArgumentException("Unknown scenario: " + name);
+			int weight = Integer.parseInt(kv[1].trim());
+			if (weight < 0)
+				throw new IllegalArgumentException("Weights cannot be negative: " + part);
+			_mix.add(new Scenario(name, weight));
+			_totalWeight += weight;
+		}
+		if (_totalWeight == 0)
+			throw new IllegalArgumentException("The mix needs a positive weight");
+	}
+
+	void readSampleData(File dataDir) throws Exception {
+		for (String[] row : MechanicShopBenchmark.readCsv(new File(dataDir, "owns.csv")))
+			_ownership.add(new String[]{ row[1], row[2] });
+		for (String[] row : MechanicShopBenchmark.readCsv(new File(dataDir, "customer.csv")))
+			_lastNames.put(row[0], row[2]);
+		for (String[] row : MechanicShopBenchmark.readCsv(new File(dataDir, "mechanic.csv")))
+			_mechanics.add(Integer.valueOf(row[0]));
+	}
+
+	/**
+	 * Runs the load for the given time and prints the results.
+	 *
+	 * @param advisors concurrent advisors in closed loop
+	 * @param rate operations started per second in open loop, 0 for closed loop
+	 * @param thinkMillis pause between the operations of one advisor in closed loop
+	 */
+	void run(int advisors, int durationSeconds, double rate, long thinkMillis) throws InterruptedException {
+		ExecutorService executor = TaskExecutors.newPerTaskExecutor("advisor", advisors);
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lock-wait-sampler");
+			t.setDaemon(true);
+			return t;
+		});
+		sampler.scheduleAtFixedRate(this::sampleLockWaits, 1, 1, TimeUnit.SECONDS);
+
+		System.out.printf("advisors=%d duration=%ds %s virtualThreads=%b%n", advisors, durationSeconds,
+			rate > 0 ? String.format("open loop at %.0f ops/s", rate) : "closed loop, think " + thinkMillis + " ms",
+			TaskExecutors.virtualThreadsAvailable());
+		long start = System.nanoTime();
+		final long deadline = start + durationSeconds * 1000000000L;
+		if (rate > 0){
+			long interval = (long) (1e9 / rate);
+			for (long i = 0; ; ++i){
+				final long intended = start + i * interval;
+				if (intended - deadline >= 0) break;
+				long sleep = intended - System.nanoTime();
+				if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+				executor.execute(() -> runOne(pick(), intended));
+			}
+		}else{
+			for (int a = 0; a < advisors; ++a){
+				executor.execute(() -> {
+					try{
+						while (System.nanoTime() - deadline < 0){
+							runOne(pick(), System.nanoTime());
+							if (thinkMillis > 0) Thread.sleep(ThreadLocalRandom.current().nextLong(thinkMillis * 2 + 1));
+						}
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+		}
+		executor.shutdown();
+		executor.awaitTermination(durationSeconds + 60, TimeUnit.SECONDS);
+		sampler.shutdownNow();
+		_async.close();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		LatencyHistogram total = new LatencyHistogram();
+		for (Scenario s : _mix){
+			total.add(s.latency);
+			System.out.printf("%-8s %10.1f ops/s  failures=%d  %s%n", s.name, s.latency.count() / seconds,
+				s.failures.get(), s.latency.summary());
+		}
+		System.out.printf("%-8s %10.1f ops/s  %s%n", "total", total.count() / seconds, total.summary());
+		System.out.printf("failures: serialization(40001)=%d deadlock(40P01)=%d lock-not-available(55P03)=%d other=%d%n",
+			_serializationFailures.get(), _deadlocks.get(), _lockTimeouts.get(), _otherFailures.get());
+		long samples = _lockWaitSamples.get();
+		System.out.printf("backends waiting on locks: mean=%.2f max=%d (%d samples)%n",
+			samples == 0 ? 0.0 : (double) _lockWaitSum.get() / samples, _lockWaitMax.get(), samples);
+	}
+
+	private Scenario pick() {
+		int r = ThreadLocalRandom.current().nextInt(_totalWeight);
+		for (Scenario s : _mix){
+			r -= s.weight;
+			if (r < 0) return s;
+		}
+		return _mix.get(_mix.size() - 1);
+	}
+
+	private void runOne(Scenario s, long startNanos) {
+		try{
+			switch (s.name){
+				case "intake": intake(); break;
+				case "close": close(); break;
+				default: report(); break;
+			}
+		}catch(SQLException e){
+			s.failures.incrementAndGet();
+			String state = e.getSQLState();
+			if ("40001".equals(state)) _serializationFailures.incrementAndGet();
+			else if ("40P01".equals(state)) _deadlocks.incrementAndGet();
+			else if ("55P03".equals(state)) _lockTimeouts.incrementAndGet();
+			else _otherFailures.incrementAndGet();
+		}finally{
+			s.latency.recordSince(startNanos);
+		}
+	}
+
+	private void intake() throws SQLException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String[] owns = _ownership.get(random.nextInt(_ownership.size()));
+		int customer = Integer.parseInt(owns[0]);
+		int odometer = 10000 + random.nextInt(200000);
+		//the search on one connection, the car listing and ownership probe pipelined on another
+		CompletableFuture<ColumnarResult> search = _async.searchCustomers(_lastNames.get(owns[0]), MechanicShop.SEARCH_PAGE_SIZE, 0);
+		AsyncShop.Pipeline reads = _async.pipeline();
+		CompletableFuture<ColumnarResult> cars = reads.query(MechanicShop.CARS_OF_CUSTOMER, customer);
+		CompletableFuture<boolean[]> owned = reads.exists(new MechanicShop.Probe("Owns", "car_vin", owns[1]).and("customer_id", customer));
+		reads.send();
+		CompletableFuture<Integer> rid = owned.thenCompose(found -> found[0]
+			? _async.insertReturningKey(MechanicShop.INSERT_SERVICE_REQUEST_RETURNING_RID,
+				customer, owns[1], LocalDate.now().toString(), odometer, "Load test complaint")
+			: CompletableFuture.completedFuture(null));
+		AsyncShop.await(CompletableFuture.allOf(search, cars, rid));
+		if (rid.join() != null) _openRequests.add(rid.join());
+	}
+
+	//closes a request opened by an earlier intake, or opens one when none is left
+	private void close() throws SQLException {
+		Integer rid = _openRequests.poll();
+		if (rid == null){
+			intake();
+			return;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		boolean[] found = _esql.exists(
+			new MechanicShop.Probe("Service_Request", "rid", rid),
+			new MechanicShop.Probe("Closed_Request", "rid", rid));
+		int mid = _mechanics.get(random.nextInt(_mechanics.size()));
+		if (found[0] && !found[1] && _esql.mechanicExists(mid))
+			_esql.executeInsertReturningKey(MechanicShop.INSERT_CLOSED_REQUEST, rid, mid, LocalDate.now().toString(),
+				"Load test closure", 1 + random.nextInt(500));
+	}
+
+	private void report() throws SQLException {
+		switch (ThreadLocalRandom.current().nextInt(5)){
+			case 0: _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_BILL_LESS_THAN_100); break;
+			case 1: _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS,
+				MechanicShop.DEFAULT_FLEET_THRESHOLD); break;
+			case 2: _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CARS_BEFORE_1995_WITH_50000_MILES); break;
+			case 3: _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_K_CARS_WITH_MOST_SERVICES, 10); break;
+			default: _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CUSTOMERS_BY_TOTAL_BILL); break;
+		}
+	}
+
+	private void sampleLockWaits() {
+		try{
+			long waiting = _esql.executeQueryAndReturnColumns(LOCK_WAITERS).getLong(0, 0);
+			_lockWaitSamples.incrementAndGet();
+			_lockWaitSum.addAndGet(waiting);
+			long max;
+			while (waiting > (max = _lockWaitMax.get()) && !_lockWaitMax.compareAndSet(max, waiting)) {
+				// retry
+			}
+		}catch(SQLException e){
+			// a missed sample only makes the estimate coarser
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + LoadDriver.class.getName() +
+				" <dbname> <port> <user> [--data dir] [--advisors n] [--duration seconds] [--rate ops/s]" +
+				" [--think ms] [--mix intake=60,close=25,report=15] [--no-seed]");
+			return;
+		}
+		File dataDir = new File("../data");
+		int advisors = 200;
+		int duration = 60;
+		double rate = 0;
+		long think = 500;
+		String mix = "intake=60,close=25,report=15";
+		boolean seed = true;
+		for (int i = 3; i < args.length; ++i){
+			switch (args[i]){
+				case "--data": dataDir = new File(args[++i]); break;
+				case "--advisors": advisors = Integer.parseInt(args[++i]); break;
+				case "--duration": duration = Integer.parseInt(args[++i]); break;
+				case "--rate": rate = Double.parseDouble(args[++i]); break;
+				case "--think": think = Long.parseLong(args[++i]); break;
+				case "--mix": mix = args[++i]; break;
+				case "--no-seed": seed = false; break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			MechanicShop.out = new PrintWriter(OutputStream.nullOutputStream());
+			if (seed) new BulkLoader(esql, dataDir).load();
+
+			LoadDriver driver = new LoadDriver(esql, mix);
+			driver.readSampleData(dataDir);
+			driver.run(advisors, duration, rate, think);
+		}catch(Exception e){
+			System.err.println("Load test failed: " + e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}//end LoadDriver
@@ -0,0 +1,240 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Benchmarks the statements behind every MechanicShop menu operation against
+ * a database seeded from the CSV files with BulkLoader.  Each operation is run
+ * for a number of warmup iterations, then timed for a number of measured
+ * iterations; throughput and latency percentiles are printed per operation.
+ *
+ * Usage: java MechanicShopBenchmark <dbname> <port> <user>
+ *            [--data dir] [--warmup n] [--iterations n] [--only name] [--no-seed]
+ *            [--partitions n]
+ *
+ */
+public class MechanicShopBenchmark {
+	/**
+	 * One invocation of a benchmarked operation.
+	 */
+	interface Operation {
+		void run(int iteration) throws Exception;
+	}
+
+	/**
+	 * A named operation with an optional untimed setup step that receives the
+	 * total number of iterations about to run.
+	 */
+	static class Benchmark {
+		final String name;
+		final Operation setup;
+		final Operation operation;
+
+		Benchmark(String name, Operation setup, Operation operation) {
+			this.name = name;
+			this.setup = setup;
+			this.operation = operation;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final Random _random = new Random(42);
+	//owns.csv rows as {customer_id, car_vin}
+	private final List<String[]> _ownership = new ArrayList<String[]>();
+	private final Map<String, String> _lastNames = new HashMap<String, String>();
+	private int _mechanics;
+
+	//next free benchmark VIN, read from the database so reruns without reseeding still work
+	private int _nextCar;
+	//requests opened by the close benchmark setup, consumed by its iterations
+	private int[] _openRequests;
+	//partitioned reports 8-10, timed next to the single-statement ones
+	private ParallelReports _parallel;
+	//the pipelined intake, timed next to the sequential one
+	private AsyncShop _async;
+
+	MechanicShopBenchmark(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	void readSampleData(File dataDir) throws IOException {
+		for (String[] row : readCsv(new File(dataDir, "owns.csv")))
+			_ownership.add(new String[]{ row[1], row[2] });
+		for (String[] row : readCsv(new File(dataDir, "customer.csv")))
+			_lastNames.put(row[0], row[2]);
+		_mechanics = readCsv(new File(dataDir, "mechanic.csv")).size();
+	}
+
+	void readNextKeys() throws Exception {
+		String count = _esql.executeQueryAndReturnResult("SELECT COUNT(*) FROM Car WHERE vin LIKE 'BENCH%'").get(0).get(0);
+		_nextCar = Integer.parseInt(count.trim());
+	}
+
+	List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new Benchmark("1-add-customer", null, i ->
+			_esql.insertCustomer("Bench", "Customer" + i, "(000)000-0000", "1 Benchmark Way")));
+		list.add(new Benchmark("2-add-mechanic", null, i ->
+			_esql.insertMechanic("Bench", "Mechanic" + i, 5)));
+		list.add(new Benchmark("3-add-car", null, i -> {
+			String vin = String.format("BENCH%011d", _nextCar++);
+			if (!_esql.carExists(vin))
+				_esql.insertCar(vin, "Toyota", "Prius", 2012);
+		}));
+		list.add(new Benchmark("4-insert-service-request", null, i -> {
+			String[] owns = _ownership.get(_random.nextInt(_ownership.size()));
+			int customer = Integer.parseInt(owns[0]);
+			MechanicShop.printColumns(_esql.searchCustomers(_lastNames.get(owns[0]), MechanicShop.SEARCH_PAGE_SIZE, 0));
+			_esql.executeQueryAndPrintResult(MechanicShop.CARS_OF_CUSTOMER, customer);
+			if (_esql.exists(new MechanicShop.Probe("Owns", "car_vin", owns[1]).and("customer_id", customer))[0])
+				_esql.executeInsertReturningKey(MechanicShop.INSERT_SERVICE_REQUEST_RETURNING_RID, customer, owns[1],
+					"2020-08-27", 10000 + i, "Benchmark complaint");
+		}));
+		list.add(new Benchmark("4-insert-service-request-async", null, i -> {
+			String[] owns = _ownership.get(_random.nextInt(_ownership.size()));
+			int customer = Integer.parseInt(owns[0]);
+			CompletableFuture<ColumnarResult> search = _async.searchCustomers(_lastNames.get(owns[0]), MechanicShop.SEARCH_PAGE_SIZE, 0);
+			AsyncShop.Pipeline reads = _async.pipeline();
+			CompletableFuture<ColumnarResult> cars = reads.query(MechanicShop.CARS_OF_CUSTOMER, customer);
+			CompletableFuture<boolean[]> owned = reads.exists(new MechanicShop.Probe("Owns", "car_vin", owns[1]).and("customer_id", customer));
+			reads.send();
+			CompletableFuture<Integer> rid = owned.thenCompose(found -> found[0]
+				? _async.insertReturningKey(MechanicShop.INSERT_SERVICE_REQUEST_RETURNING_RID, customer, owns[1],
+					"2020-08-27", 10000 + i, "Benchmark complaint")
+				: CompletableFuture.completedFuture(null));
+			AsyncShop.await(CompletableFuture.allOf(search, cars, rid));
+			MechanicShop.printColumns(search.join());
+			MechanicShop.printColumns(cars.join());
+		}));
+		list.add(new Benchmark("5-close-service-request", total -> {
+			_openRequests = new int[total];
+			for (int i = 0; i < total; ++i){
+				String[] owns = _ownership.get(_random.nextInt(_ownership.size()));
+				_openRequests[i] = _esql.executeInsertReturningKey(MechanicShop.INSERT_SERVICE_REQUEST_RETURNING_RID,
+					Integer.parseInt(owns[0]), owns[1], "2020-08-27", 10000 + i, "Benchmark complaint");
+			}
+		}, i -> {
+			int rid = _openRequests[i];
+			boolean[] found = _esql.exists(
+				new MechanicShop.Probe("Service_Request", "rid", rid),
+				new MechanicShop.Probe("Closed_Request", "rid", rid));
+			int mid = _random.nextInt(_mechanics);
+			if (found[0] && !found[1] && _esql.mechanicExists(mid))
+				_esql.executeInsertReturningKey(MechanicShop.INSERT_CLOSED_REQUEST, rid, mid, "2020-08-28",
+					"Benchmark closure", 1 + _random.nextInt(500));
+		}));
+		list.add(new Benchmark("6-bill-less-than-100", null, i ->
+			_esql.executeQueryAndPrintResult(MechanicShop.REPORT_BILL_LESS_THAN_100)));
+		list.add(new Benchmark("7-more-than-20-cars", null, i ->
+			_esql.executeQueryAndPrintResult(MechanicShop.REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS,
+				MechanicShop.DEFAULT_FLEET_THRESHOLD)));
+		list.add(new Benchmark("8-cars-before-1995", null, i ->
+			_esql.executeQueryAndPrintResult(MechanicShop.REPORT_CARS_BEFORE_1995_WITH_50000_MILES)));
+		list.add(new Benchmark("9-k-most-serviced-cars", null, i ->
+			_esql.executeQueryAndPrintResult(MechanicShop.REPORT_K_CARS_WITH_MOST_SERVICES, 10)));
+		list.add(new Benchmark("10-customers-by-total-bill", null, i ->
+			_esql.executeQueryAndPrintResult(MechanicShop.REPORT_CUSTOMERS_BY_TOTAL_BILL)));
+		if (_parallel != null){
+			list.add(new Benchmark("8-cars-before-1995-parallel", null, i ->
+				MechanicShop.printColumns(_parallel.carsBefore1995With50000Miles())));
+			list.add(new Benchmark("9-k-most-serviced-cars-parallel", null, i ->
+				MechanicShop.printColumns(_parallel.kCarsWithMostServices(10))));
+			list.add(new Benchmark("10-customers-by-total-bill-parallel", null, i ->
+				MechanicShop.printColumns(_parallel.customersByTotalBill())));
+		}
+		return list;
+	}
+
+	void run(Benchmark b, int warmup, int iterations) throws Exception {
+		if (b.setup != null) b.setup.run(warmup + iterations);
+		for (int i = 0; i < warmup; ++i)
+			b.operation.run(i);
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		long start = System.nanoTime();
+		for (int i = warmup; i < warmup + iterations; ++i){
+			long t = System.nanoTime();
+			b.operation.run(i);
+			histogram.recordSince(t);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-28s %10.1f ops/s  %s%n", b.name, iterations / seconds, histogram.summary());
+	}
+
+	static List<String[]> readCsv(File file) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try{
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (!line.isEmpty()) rows.add(line.split(",", -1));
+		}finally{
+			reader.close();
+		}
+		return rows;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + MechanicShopBenchmark.class.getName() +
+				" <dbname> <port> <user> [--data dir] [--warmup n] [--iterations n] [--only name] [--no-seed]" +
+				" [--partitions n]");
+			return;
+		}
+		File dataDir = new File("../data");
+		int warmup = 200;
+		int iterations = 2000;
+		String only = null;
+		boolean seed = true;
+		int partitions = 0;
+		for (int i = 3; i < args.length; ++i){
+			switch (args[i]){
+				case "--data": dataDir = new File(args[++i]); break;
+				case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+				case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+				case "--only": only = args[++i]; break;
+				case "--no-seed": seed = false; break;
+				case "--partitions": partitions = Integer.parseInt(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			//reports are rendered exactly as the menu renders them, then discarded
+			MechanicShop.out = new PrintWriter(OutputStream.nullOutputStream());
+			if (seed) new BulkLoader(esql, dataDir).load();
+
+			MechanicShopBenchmark bench = new MechanicShopBenchmark(esql);
+			bench._async = new AsyncShop(esql);
+			bench._parallel = new ParallelReports(esql, partitions > 0 ? partitions : ParallelReports.defaultPartitions(esql));
+			bench.readSampleData(dataDir);
+			bench.readNextKeys();
+			System.out.printf("warmup=%d iterations=%d partitions=%d%n", warmup, iterations, bench._parallel.partitions());
+			try{
+				for (Benchmark b : bench.benchmarks())
+					if (only == null || b.name.contains(only))
+						bench.run(b, warmup, iterations);
+			}finally{
+				bench._parallel.close();
+				bench._async.close();
+			}
+		}catch(Exception e){
+			System.err.println("Benchmark failed: " + e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}//end MechanicShopBenchmark
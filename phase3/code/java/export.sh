@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+OUTDIR=${4:-../snapshot}
+
+# Example: source ./export.sh flightDB 5432 user ../snapshot
+java -cp lib/*:bin/ SnapshotExport $DBNAME $PORT $USER $OUTDIR
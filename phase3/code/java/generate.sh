@@ -0,0 +1,6 @@
+#! /bin/bash
+OUTDIR=$1
+shift
+
+# Example: source ./generate.sh /tmp/scaled --requests 1000000
+java -cp lib/*:bin/ DataGenerator $OUTDIR "$@"
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./intake.sh flightDB 5432 user requests.csv --batch 1000
+java -cp lib/*:bin/ BulkIntake $DBNAME $PORT $USER "$@"
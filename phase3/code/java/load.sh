@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+DATADIR=${4:-../data}
+
+# Example: source ./load.sh flightDB 5432 user ../data
+java -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER $DATADIR
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./script.sh flightDB 5432 user nightly.txt --batch 1000 > results.jsonl
+java -cp lib/*:bin/ ScriptRunner $DBNAME $PORT $USER "$@"
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./serve.sh flightDB 5432 user --listen 8080
+java -cp lib/*:bin/ ShopServer $DBNAME $PORT $USER "$@"
@@ -0,0 +1,6 @@
+#! /bin/bash
+SNAPDIR=$1
+shift
+
+# Example: source ./snapshot.sh ../snapshot report-9 10
+java -cp lib/*:bin/ SnapshotReports $SNAPDIR "$@"
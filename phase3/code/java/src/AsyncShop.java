@@ -0,0 +1,171 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Asynchronous access to a MechanicShop.  Every method returns at once with
+ * a CompletableFuture; the statement runs on a task of its own (a virtual
+ * thread where available, see TaskExecutors) on a pooled connection, so
+ * independent calls proceed in parallel across the pool, and dependent
+ * ones are chained with thenCompose.  A Pipeline goes further and sends
+ * several independent queries over one connection in a single round trip.
+ * Futures of failed statements complete exceptionally with the
+ * SQLException.
+ *
+ * A service intake, for example, sends its customer search, the cars of
+ * the customer and the ownership probe at the same time and inserts the
+ * request once the probe answers: two round trips of latency instead of
+ * four.
+ *
+ */
+public class AsyncShop {
+	/**
+	 * Independent queries collected to be sent together.  Each add returns
+	 * the future of its own result, completed once send() has run.
+	 */
+	public class Pipeline {
+		private final List<String> _queries = new ArrayList<String>();
+		private final List<Object[]> _params = new ArrayList<Object[]>();
+		private final List<CompletableFuture<ColumnarResult>> _results = new ArrayList<CompletableFuture<ColumnarResult>>();
+		private boolean _sent = false;
+
+		public CompletableFuture<ColumnarResult> query(String sql, Object... params) {
+			if (_sent) throw new IllegalStateException("Pipeline already sent");
+			CompletableFuture<ColumnarResult> result = new CompletableFuture<ColumnarResult>();
+			_queries.add(sql);
+			_params.add(params);
+			_results.add(result);
+			return result;
+		}
+
+		/**
+		 * Adds existence checks, answered by one row of booleans.
+		 */
+		public CompletableFuture<boolean[]> exists(MechanicShop.Probe... probes) {
+			List<Object> params = new ArrayList<Object>();
+			String sql = MechanicShop.existsQuery(probes, params);
+			return query(sql, params.toArray()).thenApply(row -> {
+				boolean[] found = new boolean[probes.length];
+				for (int i = 0; i < found.length; ++i)
+					found[i] = "t".equals(row.getString(0, i)) || "true".equals(row.getString(0, i));
+				return found;
+			});
+		}
+
+		/**
+		 * Sends every query added so far in one round trip.
+		 *
+		 * @return completes when all results are in; the results of failed
+		 *         pipelines complete exceptionally with the same error
+		 */
+		public CompletableFuture<Void> send() {
+			if (_sent) throw new IllegalStateException("Pipeline already sent");
+			_sent = true;
+			if (_queries.isEmpty()) return CompletableFuture.completedFuture(null);
+			return supply(() -> _esql.executeQueriesAndReturnColumns(_queries, _params)).handle((results, error) -> {
+				for (int i = 0; i < _results.size(); ++i){
+					if (error != null) _results.get(i).completeExceptionally(unwrap(error));
+					else _results.get(i).complete(results.get(i));
+				}
+				if (error != null) throw new CompletionException(unwrap(error));
+				return null;
+			});
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final ExecutorService _executor;
+
+	/**
+	 * @param esql the shop whose pooled connections run the statements
+	 */
+	public AsyncShop(MechanicShop esql) {
+		this._esql = esql;
+		this._executor = TaskExecutors.newPerTaskExecutor("async-shop", esql.poolMaxSize());
+	}
+
+	public Pipeline pipeline() {
+		return new Pipeline();
+	}
+
+	public CompletableFuture<ColumnarResult> query(String sql, Object... params) {
+		return supply(() -> _esql.executeQueryAndReturnColumns(sql, params));
+	}
+
+	public CompletableFuture<Integer> update(String sql, Object... params) {
+		return supply(() -> _esql.executeUpdate(sql, params));
+	}
+
+	public CompletableFuture<Integer> insertReturningKey(String sql, Object... params) {
+		return supply(() -> _esql.executeInsertReturningKey(sql, params));
+	}
+
+	public CompletableFuture<boolean[]> exists(MechanicShop.Probe... probes) {
+		return supply(() -> _esql.exists(probes));
+	}
+
+	public CompletableFuture<ColumnarResult> searchCustomers(String term, int limit, int offset) {
+		return supply(() -> _esql.searchCustomers(term, limit, offset));
+	}
+
+	/**
+	 * Applies a unit of work.
+	 *
+	 * @return the keys generated by its writes
+	 */
+	public CompletableFuture<List<Integer>> flush(UnitOfWork uow) {
+		return supply(() -> {
+			uow.flush();
+			return uow.generatedKeys();
+		});
+	}
+
+	/**
+	 * Waits for a future, rethrowing the SQLException it failed with.
+	 *
+	 * @throws java.sql.SQLException when the statement behind it failed
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws SQLException {
+		try{
+			return future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a query", e);
+		}catch(ExecutionException e){
+			Throwable cause = unwrap(e.getCause());
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new SQLException(cause);
+		}
+	}
+
+	/**
+	 * Stops the statement tasks; futures not yet started never complete.
+	 */
+	public void close() {
+		_executor.shutdown();
+	}
+
+	private <T> CompletableFuture<T> supply(Callable<T> work) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		_executor.execute(() -> {
+			try{
+				result.complete(work.call());
+			}catch(Throwable e){
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null)
+			e = e.getCause();
+		return e;
+	}
+}//end AsyncShop
@@ -0,0 +1,114 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.SQLException;
+
+/**
+ * Non-interactive intake of many service requests at once.  Reads requests
+ * as customer_id,car_vin,date,odometer,complain lines (the service_request.csv
+ * layout without the rid, which the database assigns from its sequence) from
+ * a file or standard input and commits them in batches: each
+ * batch is one unit of work, i.e. one transaction carrying one JDBC batch.
+ * A failing batch is rolled back and reported; later batches still run.
+ *
+ * Usage: java BulkIntake <dbname> <port> <user> [file | -] [--batch n]
+ *
+ */
+public class BulkIntake {
+	private final MechanicShop _esql;
+	private final int _batchSize;
+
+	public BulkIntake(MechanicShop esql, int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be greater than 0");
+		this._esql = esql;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * Reads every request from the reader and commits them batch by batch.
+	 *
+	 * @return the number of requests committed
+	 * @throws java.io.IOException when the input could not be read
+	 */
+	public long run(BufferedReader input) throws IOException {
+		UnitOfWork batch = _esql.beginUnitOfWork();
+		long committed = 0;
+		long failed = 0;
+		long lineNumber = 0;
+		long start = System.nanoTime();
+		String line;
+		while ((line = input.readLine()) != null){
+			++lineNumber;
+			if (line.trim().isEmpty()) continue;
+			String[] f = line.split(",", 5);
+			if (f.length < 4){
+				System.err.println("Line " + lineNumber + ": expected customer_id,car_vin,date,odometer[,complain]");
+				++failed;
+				continue;
+			}
+			try{
+				batch.add(MechanicShop.INSERT_SERVICE_REQUEST, Integer.parseInt(f[0].trim()), f[1].trim(),
+					f[2].trim(), Integer.parseInt(f[3].trim()), f.length > 4 ? f[4] : null);
+			}catch(NumberFormatException e){
+				System.err.println("Line " + lineNumber + ": " + e.getMessage());
+				++failed;
+				continue;
+			}
+			if (batch.size() >= _batchSize){
+				int size = batch.size();
+				if (flush(batch, lineNumber)) committed += size;
+				else failed += size;
+			}
+		}
+		int size = batch.size();
+		if (flush(batch, lineNumber)) committed += size;
+		else failed += size;
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Committed %d service requests (%d failed) in %.2f s (%.0f requests/s)%n",
+			committed, failed, seconds, committed / Math.max(seconds, 1e-9));
+		return committed;
+	}
+
+	private static boolean flush(UnitOfWork batch, long lineNumber) {
+		try{
+			batch.flush();
+			return true;
+		}catch(SQLException e){
+			System.err.println("Batch ending at line " + lineNumber + " rolled back: " + e.getMessage());
+			return false;
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkIntake.class.getName() +
+				" <dbname> <port> <user> [file | -] [--batch n]");
+			return;
+		}
+		String file = "-";
+		int batchSize = 500;
+		for (int i = 3; i < args.length; ++i){
+			if (args[i].equals("--batch")) batchSize = Integer.parseInt(args[++i]);
+			else file = args[i];
+		}
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			BufferedReader input = file.equals("-")
+				? new BufferedReader(new InputStreamReader(System.in))
+				: new BufferedReader(new FileReader(file));
+			try{
+				new BulkIntake(esql, batchSize).run(input);
+			}finally{
+				input.close();
+			}
+		}catch(Exception e){
+			System.err.println("Bulk intake failed: " + e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}//end BulkIntake
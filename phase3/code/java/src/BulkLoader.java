@@ -0,0 +1,327 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Loads the MechanicShop CSV files into an existing schema through the COPY
+ * protocol (COPY ... FROM STDIN), so the files are streamed from this
+ * machine instead of being read by the server from its data directory.
+ *
+ * Secondary indexes and foreign keys on the loaded tables are dropped before
+ * the load and recreated afterwards.  User triggers are disabled during the
+ * load; the summary tables they maintain are recomputed once at the end.
+ * Tables without dependencies (Customer, Mechanic, Car) are loaded in
+ * parallel, followed by the dependent tables (Owns, Service_Request,
+ * Closed_Request).  The tables are truncated first.
+ *
+ */
+public class BulkLoader {
+	/**
+	 * A table and the CSV file and column list it is loaded from.
+	 */
+	static class Table {
+		final String name;
+		final String file;
+		final String columns;
+
+		Table(String name, String file, String columns) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+	}
+
+	//tables in the first stage have no foreign keys; the second stage references them
+	static final Table[][] STAGES = {
+		{
+			new Table("Customer", "customer.csv", "id, fname, lname, phone, address"),
+			new Table("Mechanic", "mechanic.csv", "id, fname, lname, experience"),
+			new Table("Car", "car.csv", "vin, make, model, year")
+		},
+		{
+			new Table("Owns", "owns.csv", "ownership_id, customer_id, car_vin"),
+			new Table("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain"),
+			new Table("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill")
+		}
+	};
+
+	//functions resyncing key sequences and recomputing trigger-maintained summary tables,
+	//called after the load when installed
+	static final String[] REFRESH_FUNCTIONS = {
+		"sync_key_sequences",
+		"refresh_customer_bill_total",
+		"refresh_car_service_count",
+		"refresh_customer_car_count"
+	};
+
+	private final MechanicShop _esql;
+	private final File _dataDir;
+
+	public BulkLoader(MechanicShop esql, File dataDir) {
+		this._esql = esql;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * Truncates and reloads every table from the data directory.
+	 *
+	 * @throws java.sql.SQLException when a statement failed
+	 * @throws java.io.IOException when a CSV file could not be read
+	 */
+	public void load() throws SQLException, IOException {
+		List<String> names = new ArrayList<String>();
+		for (Table[] stage : STAGES)
+			for (Table t : stage)
+				names.add(t.name.toLowerCase());
+
+		List<String[]> foreignKeys;
+		List<String> indexes;
+		PooledConnection pc = _esql.borrowConnection();
+		try{
+			Connection connection = pc.connection();
+			foreignKeys = findForeignKeys(connection, names);
+			indexes = findSecondaryIndexes(connection, names);
+
+			connection.setAutoCommit(false);
+			Statement stmt = connection.createStatement();
+			try{
+				for (String[] fk : foreignKeys)
+					stmt.executeUpdate("ALTER TABLE " + fk[0] + " DROP CONSTRAINT " + fk[1]);
+				for (String index : indexes)
+					stmt.executeUpdate("DROP INDEX " + index.substring(0, index.indexOf('\t')));
+				for (String name : names)
+					stmt.executeUpdate("ALTER TABLE " + name + " DISABLE TRIGGER USER");
+				stmt.executeUpdate("TRUNCATE " + String.join(", ", names));
+				connection.commit();
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			pc.close();
+		}
+		System.out.println("Dropped " + foreignKeys.size() + " foreign keys and " + indexes.size() + " indexes; tables truncated");
+
+		long start = System.nanoTime();
+		long totalRows = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(STAGES[0].length);
+		try{
+			for (Table[] stage : STAGES){
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for (final Table t : stage)
+					loads.add(workers.submit(() -> copy(t)));
+				for (Future<Long> f : loads)
+					totalRows += await(f);
+			}
+		}catch(SQLException | IOException | RuntimeException e){
+			//a partial load may not satisfy the foreign keys; leave the tables empty but the schema whole
+			try{
+				restore(names, indexes, foreignKeys, true);
+			}catch(SQLException restoreFailure){
+				e.addSuppressed(restoreFailure);
+			}
+			throw e;
+		}finally{
+			workers.shutdown();
+		}
+		report("All tables", totalRows, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		restore(names, indexes, foreignKeys, false);
+		System.out.printf("Recreated indexes, foreign keys and summary tables in %.2f s%n", (System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Recreates the dropped indexes and foreign keys, recomputes the summary
+	 * tables and enables the triggers again.
+	 *
+	 * @param truncate whether to empty the tables first, after a failed load
+	 */
+	private void restore(List<String> names, List<String> indexes, List<String[]> foreignKeys, boolean truncate) throws SQLException {
+		PooledConnection pc = _esql.borrowConnection();
+		try{
+			Statement stmt = pc.connection().createStatement();
+			try{
+				if (truncate) stmt.executeUpdate("TRUNCATE " + String.join(", ", names));
+				//indexes first, so the primary key lookups of the FK validation stay cheap
+				//the index of a partitioned table is defined ON ONLY the parent; recreate it on every partition
+				for (String index : indexes)
+					stmt.executeUpdate(index.substring(index.indexOf('\t') + 1).replace(" ON ONLY ", " ON "));
+				//summary tables next, so they no longer refer to rows that were truncated
+				for (String function : REFRESH_FUNCTIONS)
+					if (functionExists(pc.connection(), function))
+						stmt.execute("SELECT " + function + "()");
+				for (String[] fk : foreignKeys)
+					stmt.executeUpdate("ALTER TABLE " + fk[0] + " ADD CONSTRAINT " + fk[1] + " " + fk[2]);
+				for (String name : names){
+					stmt.executeUpdate("ALTER TABLE " + name + " ENABLE TRIGGER USER");
+					stmt.executeUpdate("ANALYZE " + name);
+				}
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			pc.close();
+		}
+	}
+
+	//streams one CSV file into its table and returns the number of rows copied
+	private long copy(Table t) throws SQLException, IOException {
+		File file = new File(_dataDir, t.file);
+		long start = System.nanoTime();
+		long rows;
+		PooledConnection pc = _esql.borrowConnection();
+		try{
+			Connection connection = pc.connection();
+			connection.setAutoCommit(false);
+			try{
+				//the CSV dates are MM/DD/YYYY HH24:MI; SET LOCAL keeps the setting off the pooled connection
+				Statement stmt = connection.createStatement();
+				try{
+					stmt.executeUpdate("SET LOCAL datestyle = 'ISO, MDY'");
+				}finally{
+					stmt.close();
+				}
+				CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+				BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+				try{
+					rows = copy.copyIn("COPY " + t.name + " (" + t.columns + ") FROM STDIN WITH DELIMITER ','", reader);
+				}finally{
+					reader.close();
+				}
+				connection.commit();
+			}catch(SQLException | IOException e){
+				connection.rollback();
+				throw e;
+			}finally{
+				connection.setAutoCommit(true);
+			}
+		}catch(SQLException e){
+			pc.markBroken();
+			throw e;
+		}finally{
+			pc.close();
+		}
+		report(t.name, rows, System.nanoTime() - start);
+		return rows;
+	}
+
+	//returns {table, constraint name, definition} for every foreign key on the tables or
+	//referencing them, such as those of the summary tables, which would block the TRUNCATE;
+	//the copies PostgreSQL keeps on each partition go and come back with their parent key
+	private static List<String[]> findForeignKeys(Connection connection, List<String> tables) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(
+			"SELECT c.relname, k.conname, pg_get_constraintdef(k.oid) " +
+			"FROM pg_constraint k JOIN pg_class c ON c.oid = k.conrelid JOIN pg_class r ON r.oid = k.confrelid " +
+			"WHERE k.contype = 'f' AND (c.relname = ANY(?) OR r.relname = ANY(?)) AND pg_table_is_visible(c.oid) " +
+			"AND k.conparentid = 0");
+		try{
+			Array names = connection.createArrayOf("text", tables.toArray());
+			stmt.setArray(1, names);
+			stmt.setArray(2, names);
+			ResultSet rs = stmt.executeQuery();
+			List<String[]> result = new ArrayList<String[]>();
+			while (rs.next())
+				result.add(new String[]{ rs.getString(1), rs.getString(2), rs.getString(3) });
+			rs.close();
+			return result;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	//returns "name<TAB>definition" for every index on the tables that does not back a constraint;
+	//the indexes of partitions that belong to an index of their parent go and come back with it
+	private static List<String> findSecondaryIndexes(Connection connection, List<String> tables) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(
+			"SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid) " +
+			"FROM pg_index i JOIN pg_class c ON c.oid = i.indrelid " +
+			"WHERE c.relname = ANY(?) AND pg_table_is_visible(c.oid) " +
+			"AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid) " +
+			"AND NOT EXISTS (SELECT 1 FROM pg_inherits h WHERE h.inhrelid = i.indexrelid)");
+		try{
+			Array names = connection.createArrayOf("text", tables.toArray());
+			stmt.setArray(1, names);
+			ResultSet rs = stmt.executeQuery();
+			List<String> result = new ArrayList<String>();
+			while (rs.next())
+				result.add(rs.getString(1) + "\t" + rs.getString(2));
+			rs.close();
+			return result;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	private static boolean functionExists(Connection connection, String name) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement("SELECT EXISTS(SELECT 1 FROM pg_proc WHERE proname = ?)");
+		try{
+			stmt.setString(1, name);
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			boolean exists = rs.getBoolean(1);
+			rs.close();
+			return exists;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	private static long await(Future<Long> f) throws SQLException, IOException {
+		try{
+			return f.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading", e);
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private static void report(String what, long rows, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.printf("%-16s %10d rows in %7.2f s (%.0f rows/s)%n", what, rows, seconds, rows / Math.max(seconds, 1e-9));
+	}
+
+	/**
+	 * Usage: java BulkLoader <dbname> <port> <user> [data directory]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 4){
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName() +
+				" <dbname> <port> <user> [data directory]");
+			return;
+		}
+		File dataDir = new File(args.length == 4 ? args[3] : "../data");
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			new BulkLoader(esql, dataDir).load();
+		}catch(Exception e){
+			System.err.println("Bulk load failed: " + e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}//end BulkLoader
@@ -0,0 +1,386 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A query result stored column by column.  INTEGER/SMALLINT columns are kept
+ * in an int[], BIGINT columns (e.g. COUNT and SUM results) in a long[], and
+ * every other column as dictionary codes into the distinct values seen, so
+ * repeating values such as Car.make or Car.model are stored once.  Numeric
+ * values are never boxed or turned into strings.
+ *
+ */
+public class ColumnarResult {
+	public static final int INT = 0;
+	public static final int LONG = 1;
+	public static final int STRING = 2;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final String[] _names;
+	private final Column[] _columns;
+	private int _rowCount = 0;
+
+	private ColumnarResult(String[] names, Column[] columns) {
+		this._names = names;
+		this._columns = columns;
+	}
+
+	/**
+	 * Reads every remaining row of the result set into columns.  The result
+	 * set is not closed.
+	 *
+	 * @param rs the result set to read
+	 * @return the columnar copy of the rows
+	 * @throws java.sql.SQLException when reading the result set failed
+	 */
+	public static ColumnarResult from(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		String[] names = new String[numCol];
+		Column[] columns = new Column[numCol];
+		for (int i = 0; i < numCol; ++i){
+			names[i] = rsmd.getColumnName(i + 1);
+			switch (rsmd.getColumnType(i + 1)){
+				case Types.INTEGER:
+				case Types.SMALLINT:
+				case Types.TINYINT:
+					columns[i] = new IntColumn(); break;
+				case Types.BIGINT:
+					columns[i] = new LongColumn(); break;
+				default:
+					columns[i] = new StringColumn(); break;
+			}
+		}
+
+		ColumnarResult result = new ColumnarResult(names, columns);
+		while (rs.next()){
+			int row = result._rowCount++;
+			for (int i = 0; i < numCol; ++i)
+				columns[i].read(rs, i + 1, row);
+		}
+		for (Column c : columns)
+			c.trim(result._rowCount);
+		return result;
+	}
+
+	/**
+	 * Assembles a result row by row, e.g. when merging the partial results of
+	 * a partitioned query.
+	 */
+	public static class Builder {
+		private final ColumnarResult _result;
+		private boolean _built = false;
+
+		/**
+		 * @param names the column labels
+		 * @param types the column types, INT, LONG or STRING
+		 */
+		public Builder(String[] names, int[] types) {
+			Column[] columns = new Column[names.length];
+			for (int i = 0; i < names.length; ++i){
+				switch (types[i]){
+					case INT: columns[i] = new IntColumn(); break;
+					case LONG: columns[i] = new LongColumn(); break;
+					default: columns[i] = new StringColumn(); break;
+				}
+			}
+			this._result = new ColumnarResult(names.clone(), columns);
+		}
+
+		/**
+		 * Appends a row of Integer, Long, String or null values, one per column.
+		 */
+		public Builder addRow(Object... values) {
+			if (_built) throw new IllegalStateException("Result already built");
+			int row = _result._rowCount++;
+			for (int i = 0; i < _result._columns.length; ++i)
+				_result._columns[i].set(row, values[i]);
+			return this;
+		}
+
+		/**
+		 * Appends a row copied from the leading columns of another result, which
+		 * must have at least as many columns of compatible types.
+		 */
+		public Builder copyRow(ColumnarResult source, int row) {
+			Object[] values = new Object[_result._columns.length];
+			for (int i = 0; i < values.length; ++i)
+				values[i] = source._columns[i].get(row);
+			return addRow(values);
+		}
+
+		public ColumnarResult build() {
+			if (!_built){
+				for (Column c : _result._columns)
+					c.trim(_result._rowCount);
+				_built = true;
+			}
+			return _result;
+		}
+	}
+
+	public int rowCount() {
+		return _rowCount;
+	}
+
+	public int columnCount() {
+		return _columns.length;
+	}
+
+	public String columnName(int col) {
+		return _names[col];
+	}
+
+	/**
+	 * @param name the column label, case-insensitive
+	 * @return the column index, or -1 when there is no such column
+	 */
+	public int columnIndex(String name) {
+		for (int i = 0; i < _names.length; ++i)
+			if (_names[i].equalsIgnoreCase(name)) return i;
+		return -1;
+	}
+
+	/**
+	 * @return INT, LONG or STRING
+	 */
+	public int columnType(int col) {
+		return _columns[col].type();
+	}
+
+	public boolean isNull(int row, int col) {
+		return _columns[col].isNull(row);
+	}
+
+	/**
+	 * @return the value of an INT column, 0 when null
+	 */
+	public int getInt(int row, int col) {
+		Column c = _columns[col];
+		if (c instanceof IntColumn) return ((IntColumn) c)._values[row];
+		throw new IllegalArgumentException("Column " + _names[col] + " is not an INT column");
+	}
+
+	/**
+	 * @return the value of an INT or LONG column, 0 when null
+	 */
+	public long getLong(int row, int col) {
+		Column c = _columns[col];
+		if (c instanceof LongColumn) return ((LongColumn) c)._values[row];
+		if (c instanceof IntColumn) return ((IntColumn) c)._values[row];
+		throw new IllegalArgumentException("Column " + _names[col] + " is not a numeric column");
+	}
+
+	/**
+	 * @return the value of any column as a string, null when null
+	 */
+	public String getString(int row, int col) {
+		return _columns[col].getString(row);
+	}
+
+	/**
+	 * @return the dictionary code of a STRING column value, -1 when null.
+	 * Equal values share a code, so callers can group on codes directly.
+	 */
+	public int getCode(int row, int col) {
+		return stringColumn(col)._codes[row];
+	}
+
+	/**
+	 * @return the number of distinct values of a STRING column
+	 */
+	public int dictionarySize(int col) {
+		return stringColumn(col)._dictionarySize;
+	}
+
+	/**
+	 * @return the value a dictionary code of a STRING column stands for
+	 */
+	public String dictionaryValue(int col, int code) {
+		return stringColumn(col)._dictionary[code];
+	}
+
+	/**
+	 * @return an estimate of the bytes the rows took on the wire: 4 per INT
+	 *         value, 8 per LONG value and the length of every string value
+	 */
+	public long byteSize() {
+		long bytes = 0;
+		for (Column c : _columns)
+			bytes += c.byteSize(_rowCount);
+		return bytes;
+	}
+
+	/**
+	 * @return a copy of the first n rows
+	 */
+	public ColumnarResult firstRows(int n) {
+		int[] types = new int[_columns.length];
+		for (int i = 0; i < types.length; ++i)
+			types[i] = _columns[i].type();
+		Builder head = new Builder(_names, types);
+		for (int row = 0; row < Math.min(n, _rowCount); ++row)
+			head.copyRow(this, row);
+		return head.build();
+	}
+
+	private StringColumn stringColumn(int col) {
+		Column c = _columns[col];
+		if (c instanceof StringColumn) return (StringColumn) c;
+		throw new IllegalArgumentException("Column " + _names[col] + " is not a STRING column");
+	}
+
+	/**
+	 * Storage for one column.
+	 */
+	private static abstract class Column {
+		//bit per row, set when the value is null; allocated on the first null
+		long[] _nulls = null;
+
+		abstract int type();
+		abstract void read(ResultSet rs, int index, int row) throws SQLException;
+		abstract void set(int row, Object value);
+		abstract Object get(int row);
+		abstract void trim(int rowCount);
+		abstract String getString(int row);
+		abstract long byteSize(int rowCount);
+
+		boolean isNull(int row) {
+			return _nulls != null && (row >>> 6) < _nulls.length && (_nulls[row >>> 6] & (1L << row)) != 0;
+		}
+
+		void setNull(int row) {
+			if (_nulls == null) _nulls = new long[Math.max(16, (row >>> 6) + 1)];
+			else if ((row >>> 6) >= _nulls.length) _nulls = Arrays.copyOf(_nulls, Math.max(_nulls.length * 2, (row >>> 6) + 1));
+			_nulls[row >>> 6] |= 1L << row;
+		}
+	}
+
+	private static final class IntColumn extends Column {
+		int[] _values = new int[INITIAL_CAPACITY];
+
+		int type() { return INT; }
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if (row == _values.length) _values = Arrays.copyOf(_values, row * 2);
+			_values[row] = rs.getInt(index);
+			if (rs.wasNull()) setNull(row);
+		}
+
+		void set(int row, Object value) {
+			if (row == _values.length) _values = Arrays.copyOf(_values, row * 2);
+			if (value == null) setNull(row);
+			else _values[row] = ((Number) value).intValue();
+		}
+
+		Object get(int row) {
+			return isNull(row) ? null : Integer.valueOf(_values[row]);
+		}
+
+		void trim(int rowCount) {
+			_values = Arrays.copyOf(_values, rowCount);
+		}
+
+		String getString(int row) {
+			return isNull(row) ? null : Integer.toString(_values[row]);
+		}
+
+		long byteSize(int rowCount) {
+			return 4L * rowCount;
+		}
+	}
+
+	private static final class LongColumn extends Column {
+		long[] _values = new long[INITIAL_CAPACITY];
+
+		int type() { return LONG; }
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if (row == _values.length) _values = Arrays.copyOf(_values, row * 2);
+			_values[row] = rs.getLong(index);
+			if (rs.wasNull()) setNull(row);
+		}
+
+		void set(int row, Object value) {
+			if (row == _values.length) _values = Arrays.copyOf(_values, row * 2);
+			if (value == null) setNull(row);
+			else _values[row] = ((Number) value).longValue();
+		}
+
+		Object get(int row) {
+			return isNull(row) ? null : Long.valueOf(_values[row]);
+		}
+
+		void trim(int rowCount) {
+			_values = Arrays.copyOf(_values, rowCount);
+		}
+
+		String getString(int row) {
+			return isNull(row) ? null : Long.toString(_values[row]);
+		}
+
+		long byteSize(int rowCount) {
+			return 8L * rowCount;
+		}
+	}
+
+	private static final class StringColumn extends Column {
+		int[] _codes = new int[INITIAL_CAPACITY];
+		String[] _dictionary = new String[64];
+		int _dictionarySize = 0;
+		//only needed while reading; dropped by trim()
+		Map<String, Integer> _index = new HashMap<String, Integer>();
+
+		int type() { return STRING; }
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			set(row, rs.getString(index));
+		}
+
+		void set(int row, Object object) {
+			if (row == _codes.length) _codes = Arrays.copyOf(_codes, row * 2);
+			String value = object == null ? null : object.toString();
+			if (value == null){
+				_codes[row] = -1;
+				setNull(row);
+				return;
+			}
+			Integer code = _index.get(value);
+			if (code == null){
+				if (_dictionarySize == _dictionary.length)
+					_dictionary = Arrays.copyOf(_dictionary, _dictionarySize * 2);
+				code = _dictionarySize;
+				_dictionary[_dictionarySize++] = value;
+				_index.put(value, code);
+			}
+			_codes[row] = code;
+		}
+
+		void trim(int rowCount) {
+			_codes = Arrays.copyOf(_codes, rowCount);
+			_dictionary = Arrays.copyOf(_dictionary, _dictionarySize);
+			_index = null;
+		}
+
+		String getString(int row) {
+			int code = _codes[row];
+			return code < 0 ? null : _dictionary[code];
+		}
+
+		Object get(int row) {
+			return getString(row);
+		}
+
+		long byteSize(int rowCount) {
+			long bytes = 0;
+			for (int row = 0; row < rowCount; ++row)
+				if (_codes[row] >= 0) bytes += _dictionary[_codes[row]].length();
+			return bytes;
+		}
+	}
+}//end ColumnarResult
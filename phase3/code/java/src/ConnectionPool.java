@@ -0,0 +1,295 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of physical PostgreSQL connections.  The pool keeps at
+ * least minSize connections open, never opens more than maxSize, closes
+ * connections that sat idle longer than the idle timeout and validates a
+ * connection before handing it out, replacing it when the backend went away.
+ *
+ */
+public class ConnectionPool {
+	//connections that have not been used for this long are checked before reuse
+	private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	private final String _url;
+	private final Properties _props;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMillis;
+	private final long _borrowTimeoutMillis;
+
+	//idle connections, most recently returned first
+	private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	//idle plus borrowed connections
+	private int _total = 0;
+	private boolean _closed = false;
+	//an explicit lock rather than synchronized, so that virtual threads
+	//waiting for a connection do not pin their carrier threads
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = _lock.newCondition();
+	private final ScheduledExecutorService _evictor;
+
+	/**
+	 * Creates the pool and eagerly opens minSize connections.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param props driver properties (user, password, ...)
+	 * @param minSize number of connections kept open at all times
+	 * @param maxSize upper bound on open connections
+	 * @param idleTimeoutMillis idle connections above minSize are closed after this long
+	 * @param borrowTimeoutMillis how long borrow() waits for a free connection
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, Properties props, int minSize, int maxSize,
+			long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+		this._url = url;
+		this._props = props;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+
+		try{
+			for (int i = 0; i < minSize; ++i){
+				PooledConnection pc = new PooledConnection(this, connect());
+				_lock.lock();
+				try{
+					_idle.addFirst(pc);
+					++_total;
+				}finally{
+					_lock.unlock();
+				}
+			}
+		}catch(SQLException e){
+			closeIdle();
+			throw e;
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection, waiting up to the borrow timeout when all maxSize
+	 * connections are in use.  Connections that fail validation are closed
+	 * and replaced by a fresh one, so a restarted backend is picked up
+	 * transparently.  The caller must close() the returned object to give it back.
+	 *
+	 * @return a validated connection
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + _borrowTimeoutMillis;
+		while (true){
+			PooledConnection pc = null;
+			_lock.lock();
+			try{
+				while (!_closed && _idle.isEmpty() && _total >= _maxSize){
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0)
+						throw new SQLException("Timed out waiting for a database connection", "08001");
+					try{
+						_available.await(wait, TimeUnit.MILLISECONDS);
+					}catch(InterruptedException e){
+						//hand on a signal this thread may have consumed
+						_available.signal();
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection", "08001");
+					}
+				}
+				if (_closed)
+					throw new SQLException("Connection pool is closed", "08003");
+				if (!_idle.isEmpty()){
+					pc = _idle.pollFirst();
+				}else{
+					++_total;
+				}
+			}finally{
+				_lock.unlock();
+			}
+
+			if (pc == null){
+				try{
+					pc = new PooledConnection(this, connect());
+				}catch(SQLException e){
+					_lock.lock();
+					try{
+						--_total;
+						_available.signal();
+					}finally{
+						_lock.unlock();
+					}
+					throw e;
+				}
+				pc.markBorrowed();
+				return pc;
+			}
+
+			if (isUsable(pc)){
+				pc.markBorrowed();
+				return pc;
+			}
+			discard(pc);
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool.  Broken connections and connections
+	 * returned after the pool was closed are closed instead.
+	 */
+	void release(PooledConnection pc) {
+		boolean keep = !pc.isBroken();
+		if (keep){
+			try{
+				Connection c = pc.connection();
+				if (!c.getAutoCommit()){
+					c.rollback();
+					c.setAutoCommit(true);
+				}
+			}catch(SQLException e){
+				keep = false;
+			}
+		}
+		_lock.lock();
+		try{
+			if (keep && !_closed){
+				pc.touch();
+				_idle.addFirst(pc);
+				//one connection came back, so one waiter can proceed
+				_available.signal();
+				return;
+			}
+		}finally{
+			_lock.unlock();
+		}
+		discard(pc);
+	}
+
+	/**
+	 * Closes every idle connection and refuses further borrows.  Borrowed
+	 * connections are closed when they are returned.
+	 */
+	public void close() {
+		_lock.lock();
+		try{
+			if (_closed) return;
+			_closed = true;
+			_available.signalAll();
+		}finally{
+			_lock.unlock();
+		}
+		if (_evictor != null) _evictor.shutdownNow();
+		closeIdle();
+	}
+
+	/**
+	 * @return number of open connections, idle or borrowed
+	 */
+	public int size() {
+		_lock.lock();
+		try{
+			return _total;
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of idle connections
+	 */
+	public int idleCount() {
+		_lock.lock();
+		try{
+			return _idle.size();
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	public int maxSize() {
+		return _maxSize;
+	}
+
+	private Connection connect() throws SQLException {
+		return DriverManager.getConnection(_url, _props);
+	}
+
+	private boolean isUsable(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc.lastUsed() < VALIDATION_INTERVAL_MILLIS)
+			return true;
+		try{
+			return pc.connection().isValid(VALIDATION_TIMEOUT_SECONDS);
+		}catch(SQLException e){
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection pc) {
+		pc.closePhysical();
+		_lock.lock();
+		try{
+			--_total;
+			_available.signal();
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	private void closeIdle() {
+		while (true){
+			PooledConnection pc;
+			_lock.lock();
+			try{
+				pc = _idle.pollFirst();
+				if (pc == null) return;
+				--_total;
+				_available.signalAll();
+			}finally{
+				_lock.unlock();
+			}
+			pc.closePhysical();
+		}
+	}
+
+	//closes connections idle for longer than the idle timeout, keeping minSize open
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		Deque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+		_lock.lock();
+		try{
+			//oldest connections sit at the tail
+			Iterator<PooledConnection> it = _idle.descendingIterator();
+			while (it.hasNext() && _total - expired.size() > _minSize){
+				PooledConnection pc = it.next();
+				if (now - pc.lastUsed() < _idleTimeoutMillis) break;
+				it.remove();
+				expired.add(pc);
+			}
+			_total -= expired.size();
+			if (!expired.isEmpty()) _available.signalAll();
+		}finally{
+			_lock.unlock();
+		}
+		for (PooledConnection pc : expired)
+			pc.closePhysical();
+	}
+}//end ConnectionPool
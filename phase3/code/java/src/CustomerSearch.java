@@ -0,0 +1,414 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Customer lookup for the service intake: finds customers whose first name,
+ * last name or phone matches a typed fragment, ranked
+ *
+ *   0  the fragment is a whole field (case-insensitive)
+ *   1  a field starts with the fragment
+ *   2  a name is similar to the fragment (pg_trgm, for typos), most similar first
+ *
+ * and within a rank by last name, first name and id.  Results come in pages
+ * of id, fname, lname and phone.  The database answers with the trigram
+ * indexes of sql/customer_search.sql.
+ *
+ * Optionally a prefix trie over every customer's lower-cased names and phone
+ * is kept in memory.  Pages that ranks 0 and 1 fill completely are then
+ * answered from the trie without a round trip; the rest, including every
+ * typo-tolerant match, still go to the database, so both paths return the
+ * same rows in the same order.  Customers added or changed are applied to
+ * the trie as they are reported, so it stays loaded under steady intake.
+ * The trie is reloaded in the background once it is older than its time to
+ * live, at most once per time to live, and right after it was dropped;
+ * searches use the database meanwhile.
+ *
+ */
+public class CustomerSearch {
+	static final String SEARCH_CUSTOMERS =
+		"SELECT id, fname, lname, phone FROM (" +
+		"SELECT id, fname, lname, phone, " +
+		"CASE WHEN lower(lname) = ? OR lower(fname) = ? OR phone = ? THEN 0 " +
+		"WHEN lower(lname) LIKE ? OR lower(fname) LIKE ? OR phone LIKE ? THEN 1 ELSE 2 END AS tier, " +
+		"GREATEST(similarity(lower(lname), ?), similarity(lower(fname), ?)) AS score " +
+		"FROM Customer " +
+		"WHERE lower(lname) LIKE ? OR lower(fname) LIKE ? OR phone LIKE ? OR lower(lname) % ? OR lower(fname) % ?" +
+		") AS M ORDER BY tier, CASE WHEN tier = 2 THEN score ELSE 0 END DESC, " +
+		"lname COLLATE \"C\", fname COLLATE \"C\", id LIMIT ? OFFSET ?";
+	static final String ALL_CUSTOMERS =
+		"SELECT id, fname, lname, phone FROM Customer";
+	static final String CUSTOMER_BY_ID =
+		"SELECT id, fname, lname, phone FROM Customer WHERE id = ?";
+
+	private static final String[] COLUMNS = { "id", "fname", "lname", "phone" };
+	private static final int[] TYPES = { ColumnarResult.INT, ColumnarResult.STRING, ColumnarResult.STRING, ColumnarResult.STRING };
+
+	/**
+	 * The searchable fields of one customer.
+	 */
+	private static class Customer {
+		final int id;
+		final String fname;
+		final String lname;
+		final String phone;
+
+		Customer(int id, String fname, String lname, String phone) {
+			this.id = id;
+			this.fname = fname;
+			this.lname = lname;
+			this.phone = phone;
+		}
+
+		//the trie keys: lower-cased names and the phone as typed
+		String[] keys() {
+			return new String[]{
+				fname == null ? null : fname.toLowerCase(),
+				lname == null ? null : lname.toLowerCase(),
+				phone };
+		}
+	}
+
+	/**
+	 * A customer change reported while the trie was being loaded.
+	 */
+	private static class Change {
+		final int id;
+		//the customer as it is now, null when it was deleted
+		final Customer customer;
+
+		Change(int id, Customer customer) {
+			this.id = id;
+			this.customer = customer;
+		}
+	}
+
+	/**
+	 * One node of the prefix trie.  Customers are listed at the node their
+	 * key ends on; a prefix matches every customer in the subtree below it.
+	 */
+	private static class Node {
+		final Map<Character, Node> children = new HashMap<Character, Node>(4);
+		int[] customers = new int[0];
+
+		void add(int customer) {
+			int[] more = new int[customers.length + 1];
+			System.arraycopy(customers, 0, more, 0, customers.length);
+			more[customers.length] = customer;
+			customers = more;
+		}
+
+		void remove(int customer) {
+			for (int i = 0; i < customers.length; ++i){
+				if (customers[i] != customer) continue;
+				int[] fewer = new int[customers.length - 1];
+				System.arraycopy(customers, 0, fewer, 0, i);
+				System.arraycopy(customers, i + 1, fewer, i, fewer.length - i);
+				customers = fewer;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The trie over every customer; customers are row numbers of rows.  A
+	 * removed customer leaves a null row behind.
+	 */
+	private static class Trie {
+		final Node root = new Node();
+		final List<Customer> rows = new ArrayList<Customer>();
+		final Map<Integer, Integer> rowOfId = new HashMap<Integer, Integer>();
+		final long loadedAt = System.nanoTime();
+
+		Trie(ColumnarResult customers) {
+			for (int row = 0; row < customers.rowCount(); ++row)
+				put(new Customer(customers.getInt(row, 0),
+					customers.getString(row, 1), customers.getString(row, 2), customers.getString(row, 3)));
+		}
+
+		int size() {
+			return rowOfId.size();
+		}
+
+		//adds a customer, replacing the one with the same id
+		void put(Customer customer) {
+			remove(customer.id);
+			int row = rows.size();
+			rows.add(customer);
+			rowOfId.put(customer.id, row);
+			for (String key : customer.keys())
+				if (key != null) node(key, true).add(row);
+		}
+
+		void remove(int id) {
+			Integer row = rowOfId.remove(id);
+			if (row == null) return;
+			for (String key : rows.get(row).keys())
+				if (key != null) node(key, false).remove(row);
+			rows.set(row, null);
+		}
+
+		private Node node(String key, boolean create) {
+			Node node = root;
+			for (int i = 0; i < key.length(); ++i)
+				node = create ? node.children.computeIfAbsent(key.charAt(i), c -> new Node()) : node.children.get(key.charAt(i));
+			return node;
+		}
+
+		//row -> rank (0 exact, 1 prefix) of every customer with a key starting with term
+		Map<Integer, Integer> prefixMatches(String term) {
+			Map<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+			Node node = root;
+			for (int i = 0; i < term.length() && node != null; ++i)
+				node = node.children.get(term.charAt(i));
+			if (node == null) return ranks;
+			for (int row : node.customers)
+				ranks.put(row, 0);
+			collect(node, ranks, true);
+			return ranks;
+		}
+
+		private void collect(Node node, Map<Integer, Integer> ranks, boolean top) {
+			if (!top)
+				for (int row : node.customers)
+					ranks.putIfAbsent(row, 1);
+			for (Node child : node.children.values())
+				collect(child, ranks, false);
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final boolean _useTrie;
+	private final long _ttlNanos;
+	//guards the trie, which changes in place, and the fields below
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private Trie _trie = null;
+	//changes reported during a load, replayed onto the loaded trie; null when no load runs
+	private List<Change> _changesDuringLoad = null;
+	//bumped by invalidate(), so a load that raced with it is discarded
+	private long _generation = 0;
+	//System.nanoTime() from which the next load may start
+	private long _nextLoadAt = System.nanoTime();
+	//set while a loader thread runs
+	private final AtomicBoolean _loading = new AtomicBoolean();
+	private final AtomicLong _loads = new AtomicLong();
+	private final AtomicLong _trieHits = new AtomicLong();
+	private final AtomicLong _databaseSearches = new AtomicLong();
+
+	/**
+	 * @param esql the shop whose pooled connections run the searches
+	 * @param useTrie whether to keep the in-memory prefix trie
+	 * @param ttlMillis how long a loaded trie is used before it is reloaded
+	 */
+	public CustomerSearch(MechanicShop esql, boolean useTrie, long ttlMillis) {
+		this._esql = esql;
+		this._useTrie = useTrie;
+		this._ttlNanos = ttlMillis * 1000000L;
+	}
+
+	/**
+	 * Finds one page of customers matching a fragment of a name or phone.
+	 *
+	 * @param term the fragment, matched case-insensitively
+	 * @param limit the page size
+	 * @param offset the number of earlier matches to skip
+	 * @return the page as id, fname, lname, phone
+	 * @throws java.sql.SQLException when the search query failed
+	 */
+	public ColumnarResult search(String term, int limit, int offset) throws SQLException {
+		String needle = term.trim().toLowerCase();
+		if (needle.isEmpty()) throw new IllegalArgumentException("Enter part of a name or phone to search for");
+		if (limit <= 0) throw new IllegalArgumentException("limit must be greater than 0");
+		if (offset < 0) throw new IllegalArgumentException("offset cannot be negative");
+
+		if (_useTrie){
+			_lock.readLock().lock();
+			try{
+				Trie trie = currentTrie();
+				ColumnarResult page = trie == null ? null : searchTrie(trie, needle, limit, offset);
+				if (page != null){
+					_trieHits.incrementAndGet();
+					return page;
+				}
+			}finally{
+				_lock.readLock().unlock();
+			}
+		}
+		_databaseSearches.incrementAndGet();
+		String prefix = escapeLike(needle) + "%";
+		return _esql.executeQueryAndReturnColumns(SEARCH_CUSTOMERS,
+			needle, needle, needle,
+			prefix, prefix, prefix,
+			needle, needle,
+			prefix, prefix, prefix, needle, needle,
+			limit, offset);
+	}
+
+	/**
+	 * Applies a customer this process inserted to the trie.
+	 */
+	public void added(int id, String fname, String lname, String phone) {
+		if (_useTrie) apply(id, new Customer(id, fname, lname, phone));
+	}
+
+	/**
+	 * Applies a customer that was inserted, updated or deleted elsewhere to
+	 * the trie, reading its current row from the database.
+	 */
+	public void changed(int id) {
+		if (!_useTrie) return;
+		//only worth a round trip when there is a trie to apply it to
+		_lock.readLock().lock();
+		try{
+			if (_trie == null && _changesDuringLoad == null) return;
+		}finally{
+			_lock.readLock().unlock();
+		}
+		Customer customer;
+		try{
+			customer = read(id);
+		}catch(SQLException e){
+			System.err.println("Could not read customer " + id + " for the search trie: " + e.getMessage());
+			invalidate();
+			return;
+		}
+		apply(id, customer);
+	}
+
+	/**
+	 * Drops the trie, e.g. when changes may have been missed; the next search
+	 * starts a reload.
+	 */
+	public void invalidate() {
+		_lock.writeLock().lock();
+		try{
+			++_generation;
+			_trie = null;
+			_nextLoadAt = System.nanoTime();
+		}finally{
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public String stats() {
+		_lock.readLock().lock();
+		try{
+			return String.format("Customer search: trie=%s customers=%d loads=%d trieHits=%d databaseSearches=%d",
+				!_useTrie ? "off" : _trie == null ? "unloaded" : "loaded", _trie == null ? 0 : _trie.size(),
+				_loads.get(), _trieHits.get(), _databaseSearches.get());
+		}finally{
+			_lock.readLock().unlock();
+		}
+	}
+
+	//the trie when it is loaded and fresh; otherwise starts a reload when one is due and returns null
+	private Trie currentTrie() {
+		Trie trie = _trie;
+		long now = System.nanoTime();
+		if (trie != null && now - trie.loadedAt < _ttlNanos) return trie;
+		//only the search that flips _loading starts a loader, however many find the trie stale
+		if (now - _nextLoadAt >= 0 && _loading.compareAndSet(false, true)){
+			Thread loader = new Thread(this::load, "customer-search-trie");
+			loader.setDaemon(true);
+			loader.start();
+		}
+		return null;
+	}
+
+	private void load() {
+		long generation;
+		_lock.writeLock().lock();
+		try{
+			_changesDuringLoad = new ArrayList<Change>();
+			_nextLoadAt = System.nanoTime() + _ttlNanos;
+			generation = _generation;
+		}finally{
+			_lock.writeLock().unlock();
+		}
+		_loads.incrementAndGet();
+		try{
+			Trie trie = new Trie(_esql.executeQueryAndReturnColumns(ALL_CUSTOMERS));
+			//replay what changed while the rows were read, until nothing more arrives
+			while (true){
+				List<Change> changes;
+				_lock.writeLock().lock();
+				try{
+					changes = _changesDuringLoad;
+					if (changes.isEmpty()){
+						if (_generation == generation) _trie = trie;
+						return;
+					}
+					_changesDuringLoad = new ArrayList<Change>();
+				}finally{
+					_lock.writeLock().unlock();
+				}
+				for (Change change : changes)
+					applyTo(trie, change.customer, change.id);
+			}
+		}catch(SQLException e){
+			System.err.println("Could not load the customer search trie: " + e.getMessage());
+		}finally{
+			_lock.writeLock().lock();
+			try{
+				_changesDuringLoad = null;
+			}finally{
+				_lock.writeLock().unlock();
+			}
+			_loading.set(false);
+		}
+	}
+
+	private void apply(int id, Customer customer) {
+		_lock.writeLock().lock();
+		try{
+			if (_changesDuringLoad != null) _changesDuringLoad.add(new Change(id, customer));
+			if (_trie != null) applyTo(_trie, customer, id);
+		}finally{
+			_lock.writeLock().unlock();
+		}
+	}
+
+	//puts the customer into the trie, or removes the id when the customer is gone
+	private static void applyTo(Trie trie, Customer customer, int id) {
+		if (customer == null) trie.remove(id);
+		else trie.put(customer);
+	}
+
+	//the customer with the id, or null when there is none
+	private Customer read(int id) throws SQLException {
+		ColumnarResult row = _esql.executeQueryAndReturnColumns(CUSTOMER_BY_ID, id);
+		if (row.rowCount() == 0) return null;
+		return new Customer(row.getInt(0, 0), row.getString(0, 1), row.getString(0, 2), row.getString(0, 3));
+	}
+
+	//the page when ranks 0 and 1 fill it, null when it needs the typo-tolerant matches of the database
+	private static ColumnarResult searchTrie(Trie trie, String needle, int limit, int offset) {
+		final Map<Integer, Integer> ranks = trie.prefixMatches(needle);
+		if (ranks.size() < offset + limit) return null;
+		final List<Customer> rows = trie.rows;
+		List<Integer> matches = new ArrayList<Integer>(ranks.keySet());
+		Collections.sort(matches, (a, b) -> {
+			int c = Integer.compare(ranks.get(a), ranks.get(b));
+			if (c == 0) c = rows.get(a).lname.compareTo(rows.get(b).lname);
+			if (c == 0) c = rows.get(a).fname.compareTo(rows.get(b).fname);
+			if (c == 0) c = Integer.compare(rows.get(a).id, rows.get(b).id);
+			return c;
+		});
+		ColumnarResult.Builder page = new ColumnarResult.Builder(COLUMNS, TYPES);
+		for (int i = offset; i < offset + limit; ++i){
+			Customer customer = rows.get(matches.get(i));
+			page.addRow(customer.id, customer.fname, customer.lname, customer.phone);
+		}
+		return page.build();
+	}
+
+	private static String escapeLike(String text) {
+		return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+}//end CustomerSearch
@@ -0,0 +1,291 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Generates a referentially consistent MechanicShop data set of any size in
+ * the comma-delimited COPY text format of sql/create.sql, ready for
+ * BulkLoader or the COPY statements in create.sql.
+ *
+ * Scale factor 1 matches the shipped sample (500 customers, 250 mechanics,
+ * 5000 cars, 30000 service requests); every table grows linearly with it.
+ * Car ownership is skewed so a few customers own dozens of cars, and service
+ * requests are skewed towards a small set of heavy-hitter VINs.  Every value
+ * is a pure function of the seed and the row number, so rows are generated
+ * in parallel chunks without shared state, and memory stays bounded by the
+ * number of chunks in flight.
+ *
+ * Usage: java DataGenerator <output dir> [--scale sf | --requests n] [--threads n] [--seed n]
+ *
+ */
+public class DataGenerator {
+	private static final int CHUNK_ROWS = 16384;
+	//larger exponents concentrate more rows on the lowest indexes
+	private static final double OWNER_SKEW = 2.0;
+	private static final double VIN_SKEW = 3.0;
+	private static final double CLOSED_FRACTION = 0.95;
+	//service dates fall between 2015-01-01 and 2020-12-31
+	private static final long FIRST_DAY = 16436;
+	private static final int DAYS = 2192;
+
+	private static final String[] FIRST_NAMES = {
+		"Armand", "Alberto", "Wyatt", "Alexandria", "Rory", "Blythe", "Maria", "James", "Linda", "Robert",
+		"Patricia", "Michael", "Jennifer", "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph",
+		"Jessica", "Thomas", "Sarah", "Carlos", "Karen", "Daniel", "Nancy", "Matthew", "Lisa", "Anthony"
+	};
+	private static final String[] LAST_NAMES = {
+		"Enderle", "Scarlett", "Ruoff", "Cuyler", "Berner", "Santacruz", "Smith", "Johnson", "Williams", "Brown",
+		"Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson",
+		"Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White",
+		"Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson", "Walker", "Young", "Allen", "King"
+	};
+	private static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane", "Main Street", "Pine Court",
+		"Maple Avenue", "Sunset Blvd.", "Lake Road", "Hillside Drive", "River Street", "Park Place"
+	};
+	private static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Fresno", "Austin", "Denver", "Tampa",
+		"Portland", "Columbus", "Reno", "Tucson", "Omaha", "Raleigh", "Boise", "Madison"
+	};
+	private static final String[][] MODELS = {
+		{ "Toyota", "Prius" }, { "Toyota", "Camry" }, { "Toyota", "Corolla" }, { "Honda", "Civic" },
+		{ "Honda", "Accord" }, { "Ford", "Focus" }, { "Ford", "F150" }, { "Ford", "Sunny" },
+		{ "Chevrolet", "Malibu" }, { "Chevrolet", "Impala" }, { "Nissan", "Altima" }, { "Nissan", "Sentra" },
+		{ "BMW", "X5" }, { "Audi", "A4" }, { "Lamborghini", "M1" }, { "Volkswagen", "Jetta" }
+	};
+	private static final String[] COMPLAINTS = {
+		"No brakes", "The wheel does not turn right", "Burns too much gas", "Engine makes noise",
+		"Check engine light is on", "Flat tire", "Battery is dead", "Air conditioning not working",
+		"Oil leak", "Transmission slips", "Windshield cracked", "Headlight out"
+	};
+	private static final String[] COMMENTS = {
+		"We lost your car", "We changed the color", "This is a bicycle", "Replaced brake pads",
+		"Rotated tires", "Replaced battery", "Changed oil", "Fixed leak", "Replaced headlight",
+		"Adjusted alignment", "Recharged AC", "No problem found"
+	};
+
+	/**
+	 * Appends the text of one row, without the line terminator.
+	 */
+	interface RowWriter {
+		void write(long row, StringBuilder line);
+	}
+
+	private final File _outputDir;
+	private final int _threads;
+	private final long _seed;
+	private final long _customers;
+	private final long _mechanics;
+	private final long _cars;
+	private final long _requests;
+
+	public DataGenerator(File outputDir, double scale, int threads, long seed) {
+		this._outputDir = outputDir;
+		this._threads = threads;
+		this._seed = seed;
+		this._customers = Math.max(1, Math.round(500 * scale));
+		this._mechanics = Math.max(1, Math.round(250 * scale));
+		this._cars = Math.max(1, Math.round(5000 * scale));
+		this._requests = Math.max(1, Math.round(30000 * scale));
+		if (_requests > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Scale too large: service request ids must fit in an INTEGER");
+	}
+
+	/**
+	 * Writes customer.csv, mechanic.csv, car.csv, owns.csv,
+	 * service_request.csv and closed_request.csv to the output directory.
+	 */
+	public void generate() throws IOException {
+		_outputDir.mkdirs();
+		write("customer.csv", _customers, (row, line) -> {
+			line.append(row).append(',')
+				.append(pick(FIRST_NAMES, 1, row)).append(',')
+				.append(pick(LAST_NAMES, 2, row)).append(',')
+				.append('(').append(100 + bounded(3, row, 900)).append(')')
+				.append(100 + bounded(4, row, 900)).append('-')
+				.append(1000 + bounded(5, row, 9000)).append(',')
+				.append(1 + bounded(6, row, 9999)).append(' ')
+				.append(pick(STREETS, 7, row)).append(' ')
+				.append(pick(CITIES, 8, row));
+		});
+		write("mechanic.csv", _mechanics, (row, line) -> {
+			line.append(row).append(',')
+				.append(pick(FIRST_NAMES, 11, row)).append(',')
+				.append(pick(LAST_NAMES, 12, row)).append(',')
+				.append(1 + bounded(13, row, 30));
+		});
+		write("car.csv", _cars, (row, line) -> {
+			String[] model = MODELS[(int) bounded(21, row, MODELS.length)];
+			appendVin(line, row);
+			line.append(',').append(model[0]).append(',').append(model[1]).append(',')
+				.append(1970 + bounded(22, row, 51));
+		});
+		write("owns.csv", _cars, (row, line) -> {
+			line.append(row).append(',').append(owner(row)).append(',');
+			appendVin(line, row);
+		});
+		write("service_request.csv", _requests, (row, line) -> {
+			long car = skewed(31, row, _cars, VIN_SKEW);
+			line.append(row).append(',').append(owner(car)).append(',');
+			appendVin(line, car);
+			line.append(',');
+			appendDate(line, requestDay(row));
+			line.append(',').append(bounded(32, row, 300000)).append(',')
+				.append(pick(COMPLAINTS, 33, row));
+		});
+		write("closed_request.csv", _requests, (row, line) -> {
+			if (uniform(41, row) >= CLOSED_FRACTION) return;
+			line.append(row).append(',').append(row).append(',')
+				.append(bounded(42, row, _mechanics)).append(',');
+			appendDate(line, requestDay(row) + bounded(43, row, 30));
+			line.append(',').append(pick(COMMENTS, 44, row)).append(',')
+				//bills are skewed towards small amounts so report 6 has something to show
+				.append(1 + skewed(45, row, 1000, 2.0));
+		});
+	}
+
+	/**
+	 * Generates the rows of one file in chunks on the worker threads; this
+	 * thread writes finished chunks in whatever order they complete.  At most
+	 * two chunks per worker are buffered at any time.
+	 */
+	private void write(String name, final long rows, final RowWriter rowWriter) throws IOException {
+		final long chunks = (rows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+		final BlockingQueue<byte[]> done = new ArrayBlockingQueue<byte[]>(2 * _threads);
+		final AtomicLong nextChunk = new AtomicLong();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		long start = System.nanoTime();
+
+		Thread[] workers = new Thread[_threads];
+		for (int t = 0; t < _threads; ++t){
+			workers[t] = new Thread(() -> {
+				StringBuilder text = new StringBuilder(CHUNK_ROWS * 64);
+				StringBuilder line = new StringBuilder(256);
+				try{
+					long chunk;
+					while ((chunk = nextChunk.getAndIncrement()) < chunks){
+						text.setLength(0);
+						long end = Math.min(rows, (chunk + 1) * CHUNK_ROWS);
+						for (long row = chunk * CHUNK_ROWS; row < end; ++row){
+							line.setLength(0);
+							rowWriter.write(row, line);
+							if (line.length() > 0) text.append(line).append('\n');
+						}
+						done.put(text.toString().getBytes(StandardCharsets.UTF_8));
+					}
+				}catch(Throwable e){
+					failure.compareAndSet(null, e);
+					done.offer(new byte[0]);
+				}
+			}, "generator-" + t);
+			workers[t].setDaemon(true);
+			workers[t].start();
+		}
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(_outputDir, name)), 1 << 20);
+		try{
+			for (long written = 0; written < chunks; ++written){
+				byte[] chunk = done.take();
+				if (failure.get() != null)
+					throw new IOException("Generating " + name + " failed", failure.get());
+				out.write(chunk);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating " + name, e);
+		}finally{
+			out.close();
+		}
+		System.out.printf("%-20s %12d rows in %7.2f s%n", name, rows, (System.nanoTime() - start) / 1e9);
+	}
+
+	//the customer owning a car; low customer ids own many cars
+	private long owner(long car) {
+		return skewed(51, car, _customers, OWNER_SKEW);
+	}
+
+	private long requestDay(long rid) {
+		return FIRST_DAY + bounded(34, rid, DAYS);
+	}
+
+	//a unique 16 character VIN: six letters derived from the car number followed by the number itself
+	private void appendVin(StringBuilder line, long car) {
+		long h = mix(_seed ^ (61L << 56) ^ car);
+		for (int i = 0; i < 6; ++i){
+			line.append((char) ('A' + (int) ((h >>> 1) % 26)));
+			h /= 26;
+		}
+		String digits = Long.toString(car);
+		for (int i = digits.length(); i < 10; ++i)
+			line.append('0');
+		line.append(digits);
+	}
+
+	//M/D/YYYY 00:00, the format of the shipped data
+	private static void appendDate(StringBuilder line, long epochDay) {
+		java.time.LocalDate date = java.time.LocalDate.ofEpochDay(epochDay);
+		line.append(date.getMonthValue()).append('/').append(date.getDayOfMonth()).append('/')
+			.append(date.getYear()).append(" 00:00");
+	}
+
+	private String pick(String[] values, int stream, long row) {
+		return values[(int) bounded(stream, row, values.length)];
+	}
+
+	//uniform in [0, n)
+	private long bounded(int stream, long row, long n) {
+		return (long) (uniform(stream, row) * n);
+	}
+
+	//in [0, n), with density concentrated on low values as the skew exponent grows
+	private long skewed(int stream, long row, long n, double skew) {
+		return Math.min(n - 1, (long) (Math.pow(uniform(stream, row), skew) * n));
+	}
+
+	//uniform in [0, 1), a pure function of the seed, the value stream and the row
+	private double uniform(int stream, long row) {
+		return (mix(_seed ^ ((long) stream << 56) ^ row) >>> 11) * 0x1.0p-53;
+	}
+
+	//SplitMix64 finalizer
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1){
+			System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() +
+				" <output dir> [--scale sf | --requests n] [--threads n] [--seed n]");
+			return;
+		}
+		double scale = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 166;
+		for (int i = 1; i < args.length; ++i){
+			switch (args[i]){
+				case "--scale": scale = Double.parseDouble(args[++i]); break;
+				case "--requests": scale = Long.parseLong(args[++i]) / 30000.0; break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--seed": seed = Long.parseLong(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+		try{
+			new DataGenerator(new File(args[0]), scale, threads, seed).generate();
+		}catch(Exception e){
+			System.err.println("Data generation failed: " + e.getMessage());
+		}
+	}
+}//end DataGenerator
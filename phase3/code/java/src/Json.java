@@ -0,0 +1,94 @@
+/**
+ * Builds one JSON object, field by field, for the machine-readable outputs
+ * (script mode, the HTTP service).  Values may be null, numbers, booleans,
+ * strings, nested Json objects or a ColumnarResult, which is written as a
+ * "columns" name array and a "rows" array of arrays.
+ *
+ */
+public class Json {
+	private final StringBuilder _out = new StringBuilder(64).append('{');
+
+	/**
+	 * Appends a field to the object.
+	 *
+	 * @param name the field name
+	 * @param value null, a Number, a Boolean, a nested Json object or anything
+	 *        else, which is written as its string
+	 * @return this object
+	 */
+	public Json field(String name, Object value) {
+		name(name);
+		value(_out, value);
+		return this;
+	}
+
+	/**
+	 * Appends the rows of a query result as "columns" and "rows" fields.
+	 * INT and LONG columns are written as numbers, the others as strings.
+	 *
+	 * @return this object
+	 */
+	public Json table(ColumnarResult result) {
+		name("columns");
+		_out.append('[');
+		for (int c = 0; c < result.columnCount(); ++c){
+			if (c > 0) _out.append(',');
+			quote(_out, result.columnName(c));
+		}
+		_out.append(']');
+		name("rows");
+		_out.append('[');
+		for (int r = 0; r < result.rowCount(); ++r){
+			if (r > 0) _out.append(',');
+			_out.append('[');
+			for (int c = 0; c < result.columnCount(); ++c){
+				if (c > 0) _out.append(',');
+				if (result.isNull(r, c)) _out.append("null");
+				else if (result.columnType(c) == ColumnarResult.INT) _out.append(result.getInt(r, c));
+				else if (result.columnType(c) == ColumnarResult.LONG) _out.append(result.getLong(r, c));
+				else quote(_out, result.getString(r, c));
+			}
+			_out.append(']');
+		}
+		_out.append(']');
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return _out.toString() + '}';
+	}
+
+	private void name(String name) {
+		if (_out.length() > 1) _out.append(',');
+		quote(_out, name);
+		_out.append(':');
+	}
+
+	private static void value(StringBuilder out, Object value) {
+		if (value == null) out.append("null");
+		else if (value instanceof Number || value instanceof Boolean || value instanceof Json) out.append(value);
+		else quote(out, value.toString());
+	}
+
+	/**
+	 * Appends the string as a JSON string literal.
+	 */
+	static void quote(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); ++i){
+			char ch = s.charAt(i);
+			switch (ch){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (ch < 0x20) out.append(String.format("\\u%04x", (int) ch));
+					else out.append(ch);
+			}
+		}
+		out.append('"');
+	}
+}//end Json
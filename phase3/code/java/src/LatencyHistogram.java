@@ -0,0 +1,130 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear histogram of latencies in nanoseconds, in the
+ * style of HdrHistogram.  Values below 128 ns are counted exactly; above
+ * that every power of two is split into 64 buckets, so any recorded value is
+ * reported within 1/64 (about 1.6%) of its true value.  Recording is lock
+ * free and safe from any number of threads.
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 64;
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	//the top bit of a long is never set, so the last shift is 62 - 6
+	private static final int BUCKETS = LINEAR_LIMIT + 56 * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		_counts.incrementAndGet(bucketOf(nanos));
+		_count.incrementAndGet();
+		_sum.addAndGet(nanos);
+		long max;
+		while (nanos > (max = _max.get()) && !_max.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Records the time elapsed since a System.nanoTime() reading.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long count() {
+		return _count.get();
+	}
+
+	public long maxNanos() {
+		return _max.get();
+	}
+
+	public double meanNanos() {
+		long n = _count.get();
+		return n == 0 ? 0 : (double) _sum.get() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket holding the given percentile, in nanoseconds
+	 */
+	public long percentileNanos(double percentile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i){
+			counts[i] = _counts.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(percentile / 100.0 * total);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += counts[i];
+			if (seen >= rank) return Math.min(upperBound(i), _max.get());
+		}
+		return _max.get();
+	}
+
+	/**
+	 * Adds every value recorded in the other histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; ++i){
+			long c = other._counts.get(i);
+			if (c != 0) _counts.addAndGet(i, c);
+		}
+		_count.addAndGet(other._count.get());
+		_sum.addAndGet(other._sum.get());
+		long otherMax = other._max.get();
+		long max;
+		while (otherMax > (max = _max.get()) && !_max.compareAndSet(max, otherMax)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Forgets every recorded value.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i)
+			_counts.set(i, 0);
+		_count.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+
+	/**
+	 * @return count, mean, p50, p90, p99, p99.9 and max, in milliseconds
+	 */
+	public String summary() {
+		return String.format("count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f (ms)",
+			count(), meanNanos() / 1e6, percentileNanos(50) / 1e6, percentileNanos(90) / 1e6,
+			percentileNanos(99) / 1e6, percentileNanos(99.9) / 1e6, maxNanos() / 1e6);
+	}
+
+	private static int bucketOf(long value) {
+		if (value < LINEAR_LIMIT) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < LINEAR_LIMIT) return bucket;
+		int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}//end LatencyHistogram
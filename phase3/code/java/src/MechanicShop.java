@@ -11,9 +11,10 @@
  */
  
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,9 +22,20 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
 import java.util.Scanner;
+import java.util.regex.Pattern;
+import java.time.LocalDate;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
 import java.io.InputStream;
 import java.io.FileInputStream;
 /**
@@ -33,27 +45,262 @@ import java.io.FileInputStream;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by all helpers
+	private ConnectionPool _pool = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//buffered terminal output for printed results, flushed after every result set
+	static PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
+	//rows fetched per round trip when printing results through a cursor
+	private int _fetchSize = Integer.getInteger("mechanicshop.fetchSize", 1000);
+
+	//statements the slow query log can ask EXPLAIN about
+	private static final Pattern EXPLAINABLE =
+		Pattern.compile("\\s*(SELECT|INSERT|UPDATE|DELETE|WITH|VALUES)\\b", Pattern.CASE_INSENSITIVE);
+
+	//channel sql/cache_notify.sql publishes reference table changes on, as 'table:key'
+	static final String REFERENCE_CHANNEL = "mechanicshop_reference";
+	private static final int CACHE_SIZE = Integer.getInteger("mechanicshop.cache.size", 10000);
+	private static final long CACHE_TTL_MILLIS = Long.getLong("mechanicshop.cache.ttlSeconds", 300) * 1000;
+	//read-through caches for the small, rarely changing reference tables
+	private final TtlCache<Integer, Boolean> _mechanicIds =
+		new TtlCache<Integer, Boolean>("Mechanic.id", CACHE_SIZE, CACHE_TTL_MILLIS);
+	private final TtlCache<String, Boolean> _carVins =
+		new TtlCache<String, Boolean>("Car.vin", CACHE_SIZE, CACHE_TTL_MILLIS);
+	private Thread _cacheListener = null;
+	//intake lookup by name or phone, with an in-memory prefix trie when -Dmechanicshop.customerSearch.trie=true
+	private final CustomerSearch _customerSearch = new CustomerSearch(this,
+		Boolean.getBoolean("mechanicshop.customerSearch.trie"), CACHE_TTL_MILLIS);
+
+	//reports 6-10 a page at a time, for browsing large results
+	private final ReportPages _reportPages = new ReportPages(this);
+
+	//reports 8-10 split across pooled connections, when -Dmechanicshop.parallelReports=true
+	private ParallelReports _parallelReports = null;
+
+	//per statement shape latency, rows, bytes and errors; see QueryMetrics
+	private final QueryMetrics _metrics = new QueryMetrics(
+		Long.getLong("mechanicshop.slowQueryMillis", 1000), System.getProperty("mechanicshop.slowQueryLog"));
+	
+	/*
+	 * SQL issued by the menu operations, kept in one place so that tools such
+	 * as the benchmark run exactly the statements the menu runs.  Surrogate
+	 * keys come from the sequences in sequences.sql; inserts that need the new
+	 * key back return it with RETURNING.  The NEW_CUSTOMER variants refer to
+	 * the customer inserted earlier in the same transaction through currval.
+	 */
+	static final String INSERT_CUSTOMER =
+		"INSERT INTO Customer(fname,lname,phone,address) VALUES (?,?,?,?) RETURNING id";
+	static final String INSERT_MECHANIC =
+		"INSERT INTO Mechanic(fname,lname,experience) VALUES (?,?,?) RETURNING id";
+	static final String INSERT_CAR =
+		"INSERT INTO Car(vin,make,model,year) VALUES (?,?,?,?)";
+	static final String INSERT_OWNS =
+		"INSERT INTO Owns(customer_id, car_vin) VALUES (?, ?)";
+	static final String INSERT_OWNS_NEW_CUSTOMER =
+		"INSERT INTO Owns(customer_id, car_vin) VALUES (currval('customer_id_seq'), ?)";
+	static final String INSERT_SERVICE_REQUEST =
+		"INSERT INTO Service_Request(customer_id, car_vin, date, odometer, complain) VALUES (?, ?, CAST(? AS DATE), ?, ?)";
+	static final String INSERT_SERVICE_REQUEST_RETURNING_RID =
+		INSERT_SERVICE_REQUEST + " RETURNING rid";
+	static final String INSERT_SERVICE_REQUEST_NEW_CUSTOMER =
+		"INSERT INTO Service_Request(customer_id, car_vin, date, odometer, complain) VALUES (currval('customer_id_seq'), ?, CAST(? AS DATE), ?, ?) RETURNING rid";
+	static final String INSERT_CLOSED_REQUEST =
+		"INSERT INTO Closed_Request(rid, mid, date, comment, bill) VALUES (?, ?, CAST(? AS DATE), ?, ?) RETURNING wid";
+	static final int SEARCH_PAGE_SIZE = 10;
+	static final String CARS_OF_CUSTOMER =
+		"SELECT * FROM Owns WHERE customer_id=?";
+	static final String REPORT_BILL_LESS_THAN_100 =
+		"SELECT date, comment, bill FROM Closed_Request WHERE bill < 100 GROUP BY date, comment, bill";
+	static final String REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS =
+		"SELECT C.fname, C.lname, F.car_count FROM Customer_Car_Count AS F, Customer AS C WHERE C.id = F.customer_id AND F.car_count > ? ORDER BY F.car_count DESC, F.customer_id";
+	static final int DEFAULT_FLEET_THRESHOLD = 20;
+	static final String REPORT_CARS_BEFORE_1995_WITH_50000_MILES =
+		"SELECT C.make, C.model, C.year FROM Car AS C, Service_Request AS S WHERE C.vin = S.car_vin AND S.odometer < 50000 AND C.year < 1995";
+	static final String REPORT_K_CARS_WITH_MOST_SERVICES =
+		"SELECT C.make, C.model, S.num_requests FROM Car_Service_Count AS S, Car AS C WHERE C.vin = S.car_vin ORDER BY S.num_requests DESC, S.car_vin COLLATE \"C\" DESC LIMIT ?";
+	static final String REPORT_CUSTOMERS_BY_TOTAL_BILL =
+		"SELECT C.fname, C.lname, B.total FROM Customer_Bill_Total AS B, Customer AS C WHERE C.id = B.customer_id ORDER BY B.total DESC, B.customer_id DESC";
+	//date-windowed variants; the window [from, to) lets partitioned history read only its months
+	static final String REPORT_BILL_LESS_THAN_100_BETWEEN =
+		"SELECT date, comment, bill FROM Closed_Request WHERE bill < 100 AND date >= CAST(? AS DATE) AND date < CAST(? AS DATE) GROUP BY date, comment, bill";
+	static final String REPORT_CARS_BEFORE_1995_WITH_50000_MILES_BETWEEN =
+		REPORT_CARS_BEFORE_1995_WITH_50000_MILES + " AND S.date >= CAST(? AS DATE) AND S.date < CAST(? AS DATE)";
+	static final String REPORT_K_CARS_WITH_MOST_SERVICES_BETWEEN =
+		"SELECT C.make, C.model, COUNT(*) AS num_requests FROM Service_Request AS S, Car AS C WHERE C.vin = S.car_vin AND S.date >= CAST(? AS DATE) AND S.date < CAST(? AS DATE) GROUP BY S.car_vin, C.make, C.model ORDER BY num_requests DESC, S.car_vin COLLATE \"C\" DESC LIMIT ?";
+	static final String REPORT_CUSTOMERS_BY_TOTAL_BILL_BETWEEN =
+		"SELECT C.fname, C.lname, SUM(CR.bill) AS total FROM Closed_Request AS CR, Service_Request AS SR, Customer AS C WHERE CR.rid = SR.rid AND C.id = SR.customer_id AND CR.date >= CAST(? AS DATE) AND CR.date < CAST(? AS DATE) GROUP BY SR.customer_id, C.fname, C.lname ORDER BY total DESC, SR.customer_id DESC";
+
+	/**
+	 * Work performed against a connection borrowed from the pool.
+	 */
+	private interface ConnectionWork<T> {
+		T run(PooledConnection pc, QueryMetrics.Call call) throws SQLException;
+	}
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
-		System.out.print("Connecting to database...");
+		this(dbname, dbport, user, passwd, System.out);
+	}
+
+	/**
+	 * @param banner where the connection progress messages go; tools whose
+	 *        standard output carries their results pass System.err
+	 */
+	public MechanicShop(String dbname, String dbport, String user, String passwd, PrintStream banner) throws SQLException {
+		banner.print("Connecting to database...");
 		try{
 			// constructs the connection URL
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-			System.out.println ("Connection URL: " + url + "\n");
+			banner.println ("Connection URL: " + url + "\n");
+			
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			// use a named server-side statement from the first execution of a
+			// cached PreparedStatement instead of after the driver default of 5
+			props.setProperty("prepareThreshold", System.getProperty("mechanicshop.prepareThreshold", "1"));
+			// send batched single-row INSERTs as multi-row INSERT statements
+			props.setProperty("reWriteBatchedInserts", "true");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
+			// opens the pool of physical connections
+			this._pool = new ConnectionPool(url, props,
+				Integer.getInteger("mechanicshop.pool.min", 1),
+				Integer.getInteger("mechanicshop.pool.max", 8),
+				Long.getLong("mechanicshop.pool.idleTimeoutSeconds", 300) * 1000,
+				Long.getLong("mechanicshop.pool.borrowTimeoutSeconds", 30) * 1000);
+	        banner.println("Done");
+
+			_metrics.registerMBean();
+			long dumpSeconds = Long.getLong("mechanicshop.metrics.dumpSeconds", 0);
+			if (dumpSeconds > 0) _metrics.startDump(dumpSeconds);
+			
+			if (Boolean.getBoolean("mechanicshop.parallelReports")){
+				this._parallelReports = new ParallelReports(this,
+					Integer.getInteger("mechanicshop.parallelReports.partitions", ParallelReports.defaultPartitions(this)));
+			}
+			
+			if (Boolean.getBoolean("mechanicshop.cache.listen")){
+				this._cacheListener = new Thread(this::listenForReferenceChanges, "reference-cache-listener");
+				this._cacheListener.setDaemon(true);
+				this._cacheListener.start();
+			}
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
-	        System.out.println("Make sure you started postgres on this machine");
+	        banner.println("Make sure you started postgres on this machine");
 	        System.exit(-1);
 		}
 	}
 	
+	/**
+	 * Borrows a connection from the pool, runs the given work on it and gives
+	 * it back.  A connection that fails with a connection error (SQLState
+	 * class 08) is discarded rather than returned; when retry is set the work
+	 * is then repeated once on a fresh connection.  Only read-only work should
+	 * be retried, since a lost connection leaves the outcome of a write unknown.
+	 * 
+	 * The wait for the connection and the whole call are recorded in the query
+	 * metrics under the statement's shape; slow calls go to the slow query log.
+	 * 
+	 * @param sql the statement the work runs, or null when the work records its own statements
+	 * @param params its bind values, or null
+	 * @param retry whether the work may be repeated after a connection failure
+	 * @param work the JDBC work to perform
+	 * @return the value computed by the work
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	private <T> T withConnection(String sql, Object[] params, boolean retry, ConnectionWork<T> work) throws SQLException {
+		QueryMetrics.Call call = new QueryMetrics.Call();
+		long start = System.nanoTime();
+		SQLException failure = null;
+		try{
+			for (int attempt = 1; ; ++attempt){
+				long borrowStart = System.nanoTime();
+				PooledConnection pc = this._pool.borrow();
+				_metrics.recordPoolWait(System.nanoTime() - borrowStart);
+				try{
+					return work.run(pc, call);
+				}catch(SQLException e){
+					if (!isConnectionFailure(e)) throw e;
+					pc.markBroken();
+					if (!retry || attempt > 1) throw e;
+				}finally{
+					pc.close();
+				}
+			}
+		}catch(SQLException e){
+			failure = e;
+			throw e;
+		}finally{
+			long nanos = System.nanoTime() - start;
+			if (sql != null && _metrics.record(sql, nanos, call, failure))
+				logSlowQuery(sql, params, nanos, call);
+		}
+	}
+
+	/**
+	 * Writes a slow statement to the slow query log together with its plan.
+	 * The plan comes from a plain EXPLAIN (the statement is not run again)
+	 * on another pooled connection; statements EXPLAIN does not accept, and
+	 * batches of several statements such as those of
+	 * executeQueriesAndReturnColumns, are logged without one.
+	 */
+	private void logSlowQuery(String sql, Object[] params, long nanos, QueryMetrics.Call call) {
+		List<String> plan = null;
+		if (EXPLAINABLE.matcher(sql).lookingAt() && isSingleStatement(sql)){
+			try{
+				PooledConnection pc = this._pool.borrow();
+				try{
+					PreparedStatement stmt = pc.connection().prepareStatement("EXPLAIN " + sql);
+					try{
+						if (params != null) bind(stmt, params);
+						ResultSet rs = stmt.executeQuery();
+						plan = new ArrayList<String>();
+						while (rs.next())
+							plan.add(rs.getString(1));
+						rs.close();
+					}finally{
+						stmt.close();
+					}
+				}finally{
+					pc.close();
+				}
+			}catch(SQLException e){
+				plan = Collections.singletonList("(no plan: " + e.getMessage() + ")");
+			}
+		}
+		_metrics.logSlowQuery(sql, params, nanos, call, plan);
+	}
+
+	//false when a ';' separates statements; a ';' inside a literal also counts, which only costs the plan
+	private static boolean isSingleStatement(String sql) {
+		int end = sql.length();
+		while (end > 0 && (sql.charAt(end - 1) == ';' || Character.isWhitespace(sql.charAt(end - 1))))
+			--end;
+		return sql.lastIndexOf(';', end - 1) < 0;
+	}
+
+	/**
+	 * @return the statement metrics of this instance, also published over JMX
+	 */
+	public QueryMetrics metrics () {
+		return _metrics;
+	}
+	
+	/**
+	 * Borrows a connection from the pool for work that needs the physical
+	 * connection itself, such as COPY.  Closing it gives it back.
+	 * 
+	 * @return a validated pooled connection
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	PooledConnection borrowConnection() throws SQLException {
+		return this._pool.borrow();
+	}
+	
+	private static boolean isConnectionFailure(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && state.startsWith("08");
+	}
+	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -62,57 +309,124 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+		withConnection(sql, null, false, (pc, call) -> {
+			// creates a statement object
+			Statement stmt = pc.connection().createStatement ();
+			try{
+				// issues the update instruction
+				call.rows(stmt.executeUpdate (sql));
+			}finally{
+				// close the instruction
+			    stmt.close ();
+			}
+			return null;
+		});
+	}//end executeUpdate
 
-		// close the instruction
-	    stmt.close ();
+	/**
+	 * Method to execute a parameterized update SQL statement.  The statement
+	 * is prepared once per connection and reused from the statement cache;
+	 * each '?' placeholder is bound to the matching parameter.
+	 * 
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		return withConnection(sql, params, false, (pc, call) -> {
+			PreparedStatement stmt = prepare(pc, sql, params);
+			try{
+				int rows = stmt.executeUpdate ();
+				call.rows(rows);
+				return rows;
+			}catch(SQLException e){
+				evictIfStale(pc, sql, e);
+				throw e;
+			}
+		});
 	}//end executeUpdate
 
+	/**
+	 * Method to execute a parameterized insert that ends in RETURNING and
+	 * hand back the generated key, in a single round trip.
+	 * 
+	 * @param sql the input SQL string with '?' placeholders and a RETURNING clause
+	 * @param params the values bound to the placeholders, in order
+	 * @return the first column of the returned row
+	 * @throws java.sql.SQLException when the insert failed
+	 * */
+	public int executeInsertReturningKey (String sql, Object... params) throws SQLException {
+		return withConnection(sql, params, false, (pc, call) -> {
+			try{
+				call.rows(1);
+				return firstKey(prepare(pc, sql, params));
+			}catch(SQLException e){
+				evictIfStale(pc, sql, e);
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Sets how many rows executeQueryAndPrintResult fetches per round trip.
+	 * Printing goes through a server-side cursor, so memory use is bounded by
+	 * the fetch size rather than the size of the result.
+	 * 
+	 * @param fetchSize rows per fetch, greater than 0
+	 */
+	public void setFetchSize (int fetchSize) {
+		if (fetchSize <= 0)
+			throw new IllegalArgumentException("Fetch size must be greater than 0");
+		this._fetchSize = fetchSize;
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out.  Rows are streamed through a server-side cursor in
+	 * batches of the fetch size and written through a buffered writer.  It
+	 * is not retried after a connection failure, since the rows printed by
+	 * then would be printed twice.
 	 * 
 	 * @param query the input query string
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+		return withConnection(query, null, false, (pc, call) -> streaming(pc, () -> {
+			//creates a statement object
+			Statement stmt = pc.connection().createStatement ();
+			try{
+				stmt.setFetchSize (this._fetchSize);
+				//issues the query instruction
+				return printResult(stmt.executeQuery (query), call);
+			}finally{
+				stmt.close ();
+			}
+		}));
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Parameterized variant of executeQueryAndPrintResult(String) that runs
+	 * through the prepared statement cache; like it, it is not retried.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return withConnection(query, params, false, (pc, call) -> streaming(pc, () -> {
+			PreparedStatement stmt = prepare(pc, query, params);
+			try{
+				stmt.setFetchSize (this._fetchSize);
+				return printResult(stmt.executeQuery (), call);
+			}catch(SQLException e){
+				evictIfStale(pc, query, e);
+				throw e;
+			}
+		}));
 	}
 	
 	/**
@@ -125,33 +439,71 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		return withConnection(query, null, true, (pc, call) -> {
+			//creates a statement object 
+			Statement stmt = pc.connection().createStatement (); 
+			try{
+				//issues the query instruction 
+				return collectResult(stmt.executeQuery (query), call); 
+			}finally{
+				stmt.close (); 
+			}
+		});
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Parameterized variant of executeQueryAndReturnResult(String) that runs
+	 * through the prepared statement cache.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		return withConnection(query, params, true, (pc, call) -> {
+			PreparedStatement stmt = prepare(pc, query, params);
+			try{
+				return collectResult(stmt.executeQuery (), call);
+			}catch(SQLException e){
+				evictIfStale(pc, query, e);
+				throw e;
+			}
+		});
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results column by
+	 * column: integer columns as primitive arrays and all other columns as
+	 * dictionary-encoded strings.  Rows are read through a cursor, so only
+	 * the compact columnar copy is ever held in memory.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result in columnar form
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException {
+		return withConnection(query, params, true, (pc, call) -> streaming(pc, () -> {
+			PreparedStatement stmt = prepare(pc, query, params);
+			try{
+				stmt.setFetchSize (this._fetchSize);
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					ColumnarResult result = ColumnarResult.from(rs);
+					call.read(result);
+					return result;
+				}finally{
+					rs.close ();
+				}
+			}catch(SQLException e){
+				evictIfStale(pc, query, e);
+				throw e;
+			}
+		}));
+	}//end executeQueryAndReturnColumns
+	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
@@ -161,20 +513,464 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		return withConnection(query, null, true, (pc, call) -> {
+			//creates a statement object
+			Statement stmt = pc.connection().createStatement ();
+			try{
+				//issues the query instruction
+				return countFirstRow(stmt.executeQuery (query), call);
+			}finally{
+				stmt.close ();
+			}
+		});
+	}
+
+	/**
+	 * Parameterized variant of executeQuery(String) that runs through the
+	 * prepared statement cache.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return withConnection(query, params, true, (pc, call) -> {
+			PreparedStatement stmt = prepare(pc, query, params);
+			try{
+				return countFirstRow(stmt.executeQuery (), call);
+			}catch(SQLException e){
+				evictIfStale(pc, query, e);
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * An existence check against one table: true when the table holds a row
+	 * whose key columns equal the given values.  Table and column names are
+	 * identifiers, not user input, and are validated before being placed in
+	 * the SQL text; the values are always bound as parameters.
+	 */
+	public static class Probe {
+		private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+		private final String _table;
+		private final List<String> _columns = new ArrayList<String>();
+		private final List<Object> _values = new ArrayList<Object>();
+
+		public Probe(String table, String keyColumn, Object value) {
+			this._table = checkIdentifier(table);
+			and(keyColumn, value);
+		}
+
+		/**
+		 * Adds another key column that must match as well.
+		 */
+		public Probe and(String keyColumn, Object value) {
+			_columns.add(checkIdentifier(keyColumn));
+			_values.add(value);
+			return this;
+		}
+
+		//appends EXISTS(SELECT 1 FROM table WHERE c1=? AND ...) and collects the bind values
+		void appendTo(StringBuilder sql, List<Object> params) {
+			sql.append("EXISTS(SELECT 1 FROM ").append(_table).append(" WHERE ");
+			for (int i = 0; i < _columns.size(); ++i){
+				if (i > 0) sql.append(" AND ");
+				sql.append(_columns.get(i)).append("=?");
+			}
+			sql.append(")");
+			params.addAll(_values);
+		}
+
+		private static String checkIdentifier(String name) {
+			if (name == null || !IDENTIFIER.matcher(name).matches())
+				throw new IllegalArgumentException("Invalid SQL identifier: " + name);
+			return name;
+		}
+	}//end Probe
+
+	/**
+	 * Method to check whether a table holds a row with the given key.  Only a
+	 * boolean travels back from the server and the probe stops at the first
+	 * match, so an index on the key column answers it without reading the row.
+	 * 
+	 * @param table the table to probe
+	 * @param keyColumn the column compared against the value
+	 * @param value the key value
+	 * @return true when a matching row exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String table, String keyColumn, Object value) throws SQLException {
+		return exists(new Probe(table, keyColumn, value))[0];
+	}
+
+	/**
+	 * Method to run several existence checks in a single round trip, as one
+	 * SELECT EXISTS(...), EXISTS(...), ... statement.
+	 * 
+	 * @param probes the checks to run
+	 * @return one result per probe, in the order given
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean[] exists (Probe... probes) throws SQLException {
+		List<Object> params = new ArrayList<Object>();
+		final String query = existsQuery(probes, params);
+		final Object[] values = params.toArray();
+		return withConnection(query, values, true, (pc, call) -> {
+			PreparedStatement stmt = prepare(pc, query, values);
+			try{
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					rs.next();
+					call.rows(1);
+					call.bytes(probes.length);
+					boolean[] result = new boolean[probes.length];
+					for (int i = 0; i < probes.length; ++i)
+						result[i] = rs.getBoolean(i + 1);
+					return result;
+				}finally{
+					rs.close ();
+				}
+			}catch(SQLException e){
+				evictIfStale(pc, query, e);
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * @return the SELECT EXISTS(...), EXISTS(...), ... statement of the
+	 *         probes; their bind values are appended to params
+	 */
+	static String existsQuery (Probe[] probes, List<Object> params) {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for (int i = 0; i < probes.length; ++i){
+			if (i > 0) sql.append(", ");
+			probes[i].appendTo(sql, params);
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Method to run several independent queries in one round trip.  They are
+	 * sent as one multi-statement PreparedStatement, which the driver writes
+	 * to the server as a single batch of protocol messages followed by one
+	 * sync, and their results are read back in order.
+	 * 
+	 * @param queries the queries, none of them containing a ';'
+	 * @param params the bind values of each query
+	 * @return one result per query, in order
+	 * @throws java.sql.SQLException when any of the queries failed
+	 */
+	public List<ColumnarResult> executeQueriesAndReturnColumns (List<String> queries, List<Object[]> params) throws SQLException {
+		StringBuilder sql = new StringBuilder();
+		List<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < queries.size(); ++i){
+			if (queries.get(i).indexOf(';') >= 0)
+				throw new IllegalArgumentException("A pipelined query cannot contain ';': " + queries.get(i));
+			if (i > 0) sql.append("; ");
+			sql.append(queries.get(i));
+			Collections.addAll(values, params.get(i));
+		}
+		final String batch = sql.toString();
+		final Object[] binds = values.toArray();
+		return withConnection(batch, binds, true, (pc, call) -> {
+			PreparedStatement stmt = prepare(pc, batch, binds);
+			try{
+				List<ColumnarResult> results = new ArrayList<ColumnarResult>(queries.size());
+				boolean hasResult = stmt.execute ();
+				while (results.size() < queries.size()){
+					if (!hasResult) throw new SQLException("Pipelined statement " + (results.size() + 1) + " returned no rows");
+					ResultSet rs = stmt.getResultSet ();
+					try{
+						ColumnarResult result = ColumnarResult.from(rs);
+						call.read(result);
+						results.add(result);
+					}finally{
+						rs.close ();
+					}
+					hasResult = stmt.getMoreResults ();
+				}
+				return results;
+			}catch(SQLException e){
+				evictIfStale(pc, batch, e);
+				throw e;
+			}
+		});
+	}//end executeQueriesAndReturnColumns
+
+	/**
+	 * Method to start collecting writes that are applied together, in one
+	 * transaction, when the returned unit of work is flushed.
+	 * 
+	 * @return an empty unit of work
+	 */
+	public UnitOfWork beginUnitOfWork () {
+		return new UnitOfWork(this);
+	}
+
+	/**
+	 * Applies parameterized writes in a single transaction.  Runs of
+	 * consecutive writes with the same SQL are sent as one JDBC batch.  When
+	 * any write fails the transaction is rolled back and nothing is applied.
+	 * Writes ending in RETURNING are batched the same way, and the key each
+	 * returns is appended to keys.
+	 * 
+	 * @param statements the SQL of each write
+	 * @param params the bind values of each write
+	 * @param keys receives the generated keys of RETURNING writes, in order
+	 * @return the number of rows affected; writes the driver reports without
+	 *         a row count (rewritten batch inserts) count as one row
+	 * @throws java.sql.SQLException when a write failed
+	 */
+	int executeInTransaction (List<String> statements, List<Object[]> params, List<Integer> keys) throws SQLException {
+		//slow runs are logged once the connection is back in the pool, as the log borrows one for EXPLAIN
+		final List<SlowRun> slow = new ArrayList<SlowRun>();
+		try{
+			return runInTransaction(statements, params, keys, slow);
+		}finally{
+			for (SlowRun run : slow)
+				logSlowQuery(run.sql, run.params, run.nanos, run.call);
+		}
+	}
+
+	/**
+	 * A statement run of a transaction that the slow query log is to report.
+	 */
+	private static class SlowRun {
+		final String sql;
+		final Object[] params;
+		final long nanos;
+		final QueryMetrics.Call call;
+
+		SlowRun(String sql, Object[] params, long nanos, QueryMetrics.Call call) {
+			this.sql = sql;
+			this.params = params;
+			this.nanos = nanos;
+			this.call = call;
+		}
+	}
+
+	private int runInTransaction (List<String> statements, List<Object[]> params, List<Integer> keys, List<SlowRun> slow) throws SQLException {
+		//every run of statements is recorded under its own shape; the call itself is not
+		return withConnection(null, null, false, (pc, call) -> {
+			Connection connection = pc.connection();
+			connection.setAutoCommit(false);
+			String sql = null;
+			try{
+				int rows = 0;
+				int i = 0;
+				while (i < statements.size()){
+					sql = statements.get(i);
+					long start = System.nanoTime();
+					QueryMetrics.Call run = new QueryMetrics.Call();
+					try{
+						//a run of RETURNING writes is batched too; the driver collects their keys
+						boolean returnsKey = returnsKey(sql);
+						PreparedStatement stmt = returnsKey
+							? pc.statements().prepareReturningKeys(sql) : pc.statements().prepare(sql);
+						try{
+							for (; i < statements.size() && statements.get(i).equals(sql); ++i){
+								bind(stmt, params.get(i));
+								stmt.addBatch();
+							}
+							for (int count : stmt.executeBatch())
+								run.rows(count == Statement.SUCCESS_NO_INFO ? 1 : count);
+							if (returnsKey) readKeys(stmt, keys);
+						}finally{
+							stmt.clearBatch();
+						}
+					}catch(SQLException e){
+						_metrics.record(sql, System.nanoTime() - start, run, e);
+						throw e;
+					}
+					long nanos = System.nanoTime() - start;
+					if (_metrics.record(sql, nanos, run, null))
+						slow.add(new SlowRun(sql, params.get(i - 1), nanos, run));
+					rows += run.rows;
+				}
+				connection.commit();
+				return rows;
+			}catch(SQLException e){
+				connection.rollback();
+				if (sql != null) evictIfStale(pc, sql, e);
+				throw e;
+			}finally{
+				connection.setAutoCommit(true);
+			}
+		});
+	}
+
+	/**
+	 * Fetches the cached statement for the given SQL on the borrowed
+	 * connection and binds the parameters to it.
+	 */
+	private static PreparedStatement prepare(PooledConnection pc, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = pc.statements().prepare(sql);
+		bind(stmt, params);
+		return stmt;
+	}
+
+	static boolean returnsKey(String sql) {
+		return sql.toUpperCase().contains(" RETURNING ");
+	}
+
+	//appends the keys a batch of RETURNING writes generated, in batch order
+	private static void readKeys(PreparedStatement stmt, List<Integer> keys) throws SQLException {
+		ResultSet rs = stmt.getGeneratedKeys();
+		try{
+			while (rs.next())
+				keys.add(rs.getInt(1));
+		}finally{
+			rs.close();
+		}
+	}
+
+	//runs an insert ending in RETURNING and reads the key from its single row
+	private static int firstKey(PreparedStatement stmt) throws SQLException {
+		ResultSet rs = stmt.executeQuery();
+		try{
+			if (!rs.next()) throw new SQLException("Insert returned no key");
+			return rs.getInt(1);
+		}finally{
+			rs.close();
+		}
+	}
+
+	private static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null)
+				stmt.setNull(i + 1, Types.OTHER);
+			else
+				stmt.setObject(i + 1, params[i]);
+		}
+	}
+
+	/**
+	 * Drops a cached statement whose server-side plan was invalidated by a
+	 * schema change (SQLState 0A000), so the next call prepares it afresh.
+	 */
+	private static void evictIfStale(PooledConnection pc, String sql, SQLException e) {
+		if ("0A000".equals(e.getSQLState()))
+			pc.statements().evict(sql);
+	}
+
+	/**
+	 * A query whose result is read through a cursor.
+	 */
+	private interface CursorWork<T> {
+		T run() throws SQLException;
+	}
+
+	/**
+	 * Runs the work inside a transaction on the borrowed connection.  The
+	 * PostgreSQL driver only honours the fetch size, and so only reads through
+	 * a cursor instead of buffering the whole result, when autocommit is off.
+	 */
+	private static <T> T streaming(PooledConnection pc, CursorWork<T> work) throws SQLException {
+		Connection connection = pc.connection();
+		connection.setAutoCommit(false);
+		try{
+			T result = work.run();
+			connection.commit();
+			return result;
+		}catch(SQLException e){
+			connection.rollback();
+			throw e;
+		}finally{
+			connection.setAutoCommit(true);
+		}
+	}
+
+	//outputs every row of the result set to standard out and closes it
+	private static int printResult(ResultSet rs, QueryMetrics.Call call) throws SQLException {
+		StringBuilder line = new StringBuilder(256);
+		try{
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			int rowCount = 0;
+			
+			//iterates through the result set and output them to standard out.
+			boolean outputHeader = true;
+			while (rs.next()){
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						line.append(rsmd.getColumnName(i)).append('\t');
+				    }
+				    out.append(line).println();
+				    outputHeader = false;
+				}
+				line.setLength(0);
+				for (int i=1; i<=numCol; ++i)
+					line.append(rs.getString (i)).append('\t');
+				call.bytes(line.length() - numCol);
+				out.append(line).println();
+				++rowCount;
+			}//end while
+			call.rows(rowCount);
+			return rowCount;
+		}finally{
+			out.flush();
+			rs.close ();
+		}
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	//outputs every row of a columnar result to standard out, in the layout of printResult
+	static int printColumns(ColumnarResult result) {
+		int numCol = result.columnCount();
+		StringBuilder line = new StringBuilder(256);
+		if (result.rowCount() > 0){
+			for (int i = 0; i < numCol; ++i)
+				line.append(result.columnName(i)).append('\t');
+			out.append(line).println();
+		}
+		for (int row = 0; row < result.rowCount(); ++row){
+			line.setLength(0);
+			for (int i = 0; i < numCol; ++i)
+				line.append(result.getString(row, i)).append('\t');
+			out.append(line).println();
+		}
+		out.flush();
+		return result.rowCount();
+	}
 
-		int rowCount = 0;
+	//saves every row of the result set as a list of strings and closes it
+	private static List<List<String>> collectResult(ResultSet rs, QueryMetrics.Call call) throws SQLException {
+		try{
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					if (value != null) call.bytes(value.length());
+					record.add(value); 
+				}
+				result.add(record); 
+			}//end while 
+			call.rows(result.size());
+			return result; 
+		}finally{
+			rs.close ();
+		}
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	//returns 1 when the result set has at least one row, 0 otherwise, and closes it
+	private static int countFirstRow(ResultSet rs, QueryMetrics.Call call) throws SQLException {
+		try{
+			int found = rs.next() ? 1 : 0;
+			call.rows(found);
+			return found;
+		}finally{
+			rs.close ();
+		}
 	}
 	
 	/**
@@ -182,30 +978,255 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and returns the current 
 	 * value of sequence used for autogenerated keys
 	 * 
+	 * currval is scoped to the database session, and consecutive calls may be
+	 * served by different pooled connections, so this only answers for values
+	 * drawn on the same connection.  Prefer an insert with RETURNING
+	 * (executeInsertReturningKey) to learn a generated key.
+	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		final String query = "SELECT currval(CAST(? AS regclass))";
+		final Object[] params = { sequence };
+		return withConnection(query, params, true, (pc, call) -> {
+			ResultSet rs = prepare(pc, query, params).executeQuery ();
+			try{
+				call.rows(1);
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			}finally{
+				rs.close ();
+			}
+		});
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to check whether a mechanic id is taken, answered from the
+	 * reference cache when possible.
+	 * 
+	 * @param id the mechanic id
+	 * @return true when a mechanic with that id exists
+	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public void cleanup(){
+	public boolean mechanicExists (int id) throws SQLException {
+		return _mechanicIds.get(id, key -> exists("Mechanic", "id", key));
+	}
+
+	/**
+	 * Method to check whether a VIN is registered, answered from the
+	 * reference cache when possible.
+	 * 
+	 * @param vin the vehicle identification number
+	 * @return true when a car with that VIN exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean carExists (String vin) throws SQLException {
+		return _carVins.get(vin, key -> exists("Car", "vin", key));
+	}
+
+	/**
+	 * Method to find one ranked page of the customers whose name or phone
+	 * matches a fragment, tolerating typos; see CustomerSearch.
+	 * 
+	 * @param term part of a first name, last name or phone
+	 * @param limit the page size
+	 * @param offset the number of earlier matches to skip
+	 * @return the page as id, fname, lname, phone
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult searchCustomers (String term, int limit, int offset) throws SQLException {
+		return _customerSearch.search(term, limit, offset);
+	}
+
+	/**
+	 * Method to insert a customer and add it to the customer search.
+	 * 
+	 * @return the id the database assigned to the customer
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int insertCustomer (String fname, String lname, String phone, String address) throws SQLException {
+		int id = executeInsertReturningKey(INSERT_CUSTOMER, fname, lname, phone, address);
+		customerAdded(id, fname, lname, phone);
+		return id;
+	}
+
+	/**
+	 * Adds a customer this process inserted to the customer search.
+	 */
+	void customerAdded (int id, String fname, String lname, String phone) {
+		_customerSearch.added(id, fname, lname, phone);
+	}
+
+	/**
+	 * Method to insert a mechanic and drop the cached lookups it affects.
+	 * 
+	 * @return the id the database assigned to the mechanic
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int insertMechanic (String fname, String lname, int experience) throws SQLException {
+		int id = executeInsertReturningKey(INSERT_MECHANIC, fname, lname, experience);
+		mechanicAdded(id);
+		return id;
+	}
+
+	/**
+	 * Drops the cached lookup of a mechanic this process inserted.
+	 */
+	void mechanicAdded (int id) {
+		//the id may have been cached as missing before the sequence handed it out
+		_mechanicIds.invalidate(id);
+	}
+
+	/**
+	 * Method to insert a car and drop the cached lookups it affects.
+	 * 
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public void insertCar (String vin, String make, String model, int year) throws SQLException {
 		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+			executeUpdate(INSERT_CAR, vin, make, model, year);
+		}finally{
+			_carVins.invalidate(vin);
+		}
+	}
+
+	/**
+	 * Drops the cached lookups for one changed reference row, or updates the
+	 * customer search, as announced by a notification on REFERENCE_CHANNEL.
+	 * 
+	 * @param change the notification payload, 'table:key'
+	 */
+	void invalidateReference (String change) {
+		int colon = change.indexOf(':');
+		if (colon < 0) return;
+		String table = change.substring(0, colon).toLowerCase();
+		String key = change.substring(colon + 1);
+		switch (table){
+			case "customer":
+				try{
+					_customerSearch.changed(Integer.parseInt(key));
+				}catch(NumberFormatException e){
+					_customerSearch.invalidate();
+				}
+				break;
+			case "car": _carVins.invalidate(key); break;
+			case "mechanic":
+				try{
+					_mechanicIds.invalidate(Integer.valueOf(key));
+				}catch(NumberFormatException e){
+					//not a payload of cache_notify.sql; the changed id is unknown
+					_mechanicIds.invalidateAll();
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Drops every cached reference lookup.
+	 */
+	public void invalidateReferenceCaches () {
+		_mechanicIds.invalidateAll();
+		_carVins.invalidateAll();
+		_customerSearch.invalidate();
+	}
+
+	/**
+	 * @return the number of open, idle and at most allowed pooled connections
+	 */
+	public String poolStats () {
+		return String.format("size=%d idle=%d max=%d", _pool.size(), _pool.idleCount(), _pool.maxSize());
+	}
+
+	/**
+	 * @return the most connections the pool opens at once
+	 */
+	public int poolMaxSize () {
+		return _pool.maxSize();
+	}
+
+	/**
+	 * @return the keyset-paged versions of reports 6-10
+	 */
+	public ReportPages reportPages () {
+		return _reportPages;
+	}
+
+	/**
+	 * @return the parallel versions of reports 8-10, or null when they are switched off
+	 */
+	public ParallelReports parallelReports () {
+		return _parallelReports;
+	}
+
+	/**
+	 * @return hit/miss counters of the reference caches, one cache per line
+	 */
+	public String referenceCacheStats () {
+		return _mechanicIds.stats() + "\n" + _carVins.stats() + "\n" + _customerSearch.stats();
+	}
+
+	/**
+	 * Body of the cache listener thread: keeps one pooled connection
+	 * listening on REFERENCE_CHANNEL and drops the cached entries of rows
+	 * other terminals change.  After a lost connection everything cached is
+	 * dropped, since notifications sent in the meantime were missed.
+	 */
+	private void listenForReferenceChanges () {
+		while (!Thread.currentThread().isInterrupted()){
+			try{
+				PooledConnection pc = this._pool.borrow();
+				try{
+					Connection connection = pc.connection();
+					Statement stmt = connection.createStatement();
+					stmt.execute("LISTEN " + REFERENCE_CHANNEL);
+					invalidateReferenceCaches();
+					PGConnection pg = connection.unwrap(PGConnection.class);
+					while (!Thread.currentThread().isInterrupted()){
+						//the driver only reads notifications while talking to the server
+						stmt.execute("SELECT 1");
+						PGNotification[] notifications = pg.getNotifications();
+						if (notifications != null)
+							for (PGNotification n : notifications)
+								invalidateReference(n.getParameter());
+						Thread.sleep(500);
+					}
+				}catch(SQLException e){
+					invalidateReferenceCaches();
+				}finally{
+					//never hand a listening connection to anyone else
+					pc.markBroken();
+					pc.close();
+				}
+				Thread.sleep(1000);
+			}catch(SQLException e){
+				try{
+					Thread.sleep(1000);
+				}catch(InterruptedException ie){
+					return;
+				}
+			}catch(InterruptedException e){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Method to close every pooled physical connection.
+	 */
+	public void cleanup(){
+		if (this._parallelReports != null){
+			this._parallelReports.close ();
+		}//end if
+		if (this._cacheListener != null){
+			this._cacheListener.interrupt ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+		_metrics.close ();
 	}//end cleanup
 
 	/**
@@ -307,26 +1328,17 @@ public class MechanicShop{
 	}//end readChoice
 	
 	public static void AddCustomer(MechanicShop esql){//1
+		AddCustomer(esql, null);
+	}
 
-		                try{
-                        System.out.print("Enter Customer id: ");
-                        int id;
-                        while(true){
-                                try{
-                                        id = Integer.parseInt(in.readLine());
-                                        break;
-
-                                }
-
-                                catch(Exception e){
-                                        System.out.print("\nInvalid input for customer id. Please try again : ");
-                                        continue;
-                                }
-                        }
-
-
+	/**
+	 * Prompts for a new customer.  With a unit of work the insert is queued
+	 * on it instead of being executed right away.
+	 */
+	static void AddCustomer(MechanicShop esql, UnitOfWork uow){
 
-                        System.out.print("\nEnter Customer first name: ");
+		                try{
+                        System.out.print("Enter Customer first name: ");
                         String fname = in.readLine();
                         while(true){
                                 if(fname.length() == 0 || fname.length() > 32){
@@ -389,8 +1401,10 @@ public class MechanicShop{
 
                         //if(id!=null && fname!=null && lname!=null && phone!=null && address!=null) {
                         //                        //Statement stmt = _connection.createStatement();
-                                                                        String query = String.format("INSERT INTO Customer(id,fname,lname,phone,address) VALUES (%d ,'%s','%s','%s','%s')",id,fname,lname,phone,address);
-                                                                                                esql.executeUpdate(query);
+                                                                        if (uow != null)
+                                                                                uow.addCustomer(fname,lname,phone,address);
+                                                                        else
+                                                                                System.out.println("Customer id: " + esql.insertCustomer(fname,lname,phone,address));
                                                                                                                 }catch(Exception e){
                                                                                                                                         System.out.println("Query couldn't execute");
                                                                                                                                                         }
@@ -399,30 +1413,7 @@ public class MechanicShop{
 	
 	public static void AddMechanic(MechanicShop esql){//2
 		try{
-			System.out.print("Enter Mechanic id: ");
-			int id; 
-			while(true){
-                                try{
-                                        id = Integer.parseInt(in.readLine());
-                                        int idExists = esql.executeQuery("SELECT * FROM Mechanic WHERE id=" + id + ";");
-										while(idExists!=0) {
-											System.out.println("This id is already taken, please enter a different id");
-											id = Integer.parseInt(in.readLine());
-											idExists = esql.executeQuery("SELECT * FROM Mechanic WHERE id=" + id + ";");
-                        				}
-                                        break;
-
-                                }
-
-                                catch(Exception e){
-                                        System.out.print("\nInput for mechanic ID must not be null or contain any characters. Please try again : ");
-                                        continue;
-                                }
-                        }
-
-			
-			
-			System.out.print("\nEnter Mechanic first name: ");
+			System.out.print("Enter Mechanic first name: ");
 			String fname = in.readLine();
                         while(true){
                                 if(fname.length() == 0 || fname.length() > 32){
@@ -469,8 +1460,7 @@ public class MechanicShop{
                         }
 			
 
-			String query = String.format("INSERT INTO Mechanic(id,fname,lname,experience) VALUES (%d ,'%s','%s',%d)",id,fname,lname,exp);
-			esql.executeUpdate(query);
+			System.out.println("Mechanic id: " + esql.insertMechanic(fname,lname,exp));
 		}
 		catch(Exception e){
 			System.out.println("Query could not execute.");
@@ -480,6 +1470,14 @@ public class MechanicShop{
 	
 	
 	public static void AddCar(MechanicShop esql){//3
+		AddCar(esql, null);
+	}
+
+	/**
+	 * Prompts for a new car.  With a unit of work the insert is queued on it
+	 * instead of being executed right away.
+	 */
+	static void AddCar(MechanicShop esql, UnitOfWork uow){
 		try{
 			System.out.print("Enter car VIN number: ");
 			String vin = in.readLine();
@@ -488,11 +1486,11 @@ public class MechanicShop{
                                 System.out.print("Vin cannot be empty. Please reenter a vin: ");
                                 vin = in.readLine();
                         }
-                        int vinExists = esql.executeQuery("SELECT * FROM Car WHERE vin='" + vin + "';");
-                        while(vinExists!=0) {
+                        boolean vinExists = esql.carExists(vin);
+                        while(vinExists) {
                                 System.out.println("This vin is already taken, please enter a different vin");
                                 vin = in.readLine();
-                                vinExists = esql.executeQuery("SELECT * FROM Car WHERE vin='" + vin + "';");
+                                vinExists = esql.carExists(vin);
                         }
 			System.out.print("\nEnter car make: ");
 			String make = in.readLine();
@@ -504,8 +1502,10 @@ public class MechanicShop{
 			int year = Integer.parseInt(in.readLine());
 			
 
-			String query = String.format("INSERT INTO Car(vin,make,model,year) VALUES ('%s' ,'%s','%s', %d)",vin,make,model,year);
-			esql.executeUpdate(query);
+			if (uow != null)
+				uow.addCar(vin,make,model,year);
+			else
+				esql.insertCar(vin,make,model,year);
 		}
 		catch(Exception e){
 			System.out.println("ERROR: Please ensure your input is the correct type. Year is an integer, and VIN, make, and model are strings.");
@@ -514,21 +1514,58 @@ public class MechanicShop{
 	
 	public static void InsertServiceRequest(MechanicShop esql){//4
 		try{
-			int cust_ID;
+			int cust_ID = 0;
+			boolean newCustomer = false;
 			String car_vin="";
+			//new customer, car, ownership and the request itself are written together at the end
+			UnitOfWork intake = esql.beginUnitOfWork();
 			
-			System.out.print("Enter the last name of the customer: ");
-                        String lastName = in.readLine();
+			System.out.print("Enter part of the customer's name or phone: ");
+			String term = in.readLine();
 
-			esql.executeQueryAndPrintResult("SELECT * FROM Customer WHERE lname='" + lastName + "';");
-			int customerExists = esql.executeQuery("SELECT * FROM Customer WHERE lname='" + lastName + "';"); 
+			//best matches first, a page at a time; the operator picks one by its number
+			int offset = 0;
+			ColumnarResult candidates = esql.searchCustomers(term, SEARCH_PAGE_SIZE, offset);
+			boolean selected = false;
+			while (candidates.rowCount() > 0 && !selected && !newCustomer){
+				for (int row = 0; row < candidates.rowCount(); ++row)
+					System.out.printf("%3d) %s %s, %s (id %d)%n", offset + row + 1, candidates.getString(row, 1).trim(),
+						candidates.getString(row, 2).trim(), candidates.getString(row, 3).trim(), candidates.getInt(row, 0));
+				System.out.print("Select a customer by number, 'n' for more, or 'a' to add a new customer: ");
+				String choice = in.readLine().trim();
+				if (choice.equalsIgnoreCase("n")){
+					ColumnarResult more = esql.searchCustomers(term, SEARCH_PAGE_SIZE, offset + SEARCH_PAGE_SIZE);
+					if (more.rowCount() == 0){
+						System.out.println("No more matching customers.");
+						continue;
+					}
+					offset += SEARCH_PAGE_SIZE;
+					candidates = more;
+				}
+				else if (choice.equalsIgnoreCase("a")){
+					AddCustomer(esql, intake);
+					newCustomer = intake.size() > 0;
+					if (!newCustomer) return;
+				}
+				else {
+					int row = Integer.parseInt(choice) - 1 - offset;
+					if (row < 0 || row >= candidates.rowCount()){
+						System.out.println("Invalid selection");
+						continue;
+					}
+					cust_ID = candidates.getInt(row, 0);
+					selected = true;
+				}
+			}
 			
-			if (customerExists == 0){ 
+			if (candidates.rowCount() == 0){ 
 	
-					System.out.println("No customers could be found with that last name. Would you like to add a new customer? (Input y/n)");
+					System.out.println("No customers could be found with that name or phone. Would you like to add a new customer? (Input y/n)");
 					String answer = in.readLine();
 					if(answer.equals( "y") || answer.equals("Y")) {
-						AddCustomer(esql);
+						AddCustomer(esql, intake);
+						newCustomer = intake.size() > 0;
+						if (!newCustomer) return;
 					}
 					else if (answer.equals("n") || answer.equals("N")) {
 						System.out.println("Ok. Have a blessed day.");
@@ -540,58 +1577,48 @@ public class MechanicShop{
 					}
 			}
 			 
-				System.out.println("Enter the customer ID: ");
-				cust_ID = Integer.parseInt(in.readLine());
-				
-			
-
-			esql.executeQueryAndPrintResult("SELECT * FROM Owns WHERE customer_id='" + cust_ID + "';");
-				
-			int carExists = esql.executeQuery("SELECT * FROM Owns WHERE customer_id='" + cust_ID + "';"); 
+			//a new customer gets its id from the sequence at flush and owns no car yet
+			int carExists = 0;
+			if (!newCustomer){
+				carExists = esql.executeQueryAndPrintResult(CARS_OF_CUSTOMER, cust_ID);
+			}
 				
 			if (carExists ==0){
 	 
 				System.out.println("The customer doesn't own a car. Please add a new car.");
-				AddCar(esql);
+				AddCar(esql, intake);
 			}	
 			
 			System.out.println("Enter the VIN: ");
 			car_vin = in.readLine();
 			
-			if(customerExists ==0 && carExists ==0) {
-				System.out.println("Enter ownership id: ");
-				int ownership_id = Integer.parseInt(in.readLine());
-				System.out.println(ownership_id +", " + cust_ID + ", " + car_vin);
-				String query = String.format("INSERT INTO Owns(ownership_id, customer_id, car_vin) VALUES (%d, %d, '%s')",ownership_id, cust_ID, car_vin);
-				esql.executeUpdate(query);
-				System.out.println("Success");
+			//a newly added car needs an ownership record, whether or not the customer is new
+			boolean ownsQueued = false;
+			if(carExists ==0) {
+				if (newCustomer)
+					intake.add(INSERT_OWNS_NEW_CUSTOMER, car_vin);
+				else
+					intake.add(INSERT_OWNS, cust_ID, car_vin);
+				ownsQueued = true;
 			}
 	
-			carExists = esql.executeQuery("SELECT * FROM Owns WHERE car_vin='" + car_vin + "' AND customer_id='" + cust_ID + "';");
-			if (carExists != 0){
-				
-				System.out.println("Enter the Service Request ID: ");
-				int rid = Integer.parseInt(in.readLine());
+			if (ownsQueued || esql.exists(new Probe("Owns", "car_vin", car_vin).and("customer_id", cust_ID))[0]){
 				
-				int ridExists = esql.executeQuery("SELECT * FROM Service_Request WHERE rid=" + rid + ";");
-				while(ridExists!=0) {
-					//boolean stillhere = false;
-					System.out.println("ERROR: RID already exists! Please enter a different RID: ");
-					rid = Integer.parseInt(in.readLine());
-					ridExists = esql.executeQuery("SELECT * FROM Service_Request WHERE rid=" + rid + ";");
-				}
-
 				System.out.println("What is the odometer reading?: ");
 				int odometer = Integer.parseInt(in.readLine());
 				
 				System.out.println("Please enter the complaint: ");
 				String complain = in.readLine();
 				
-				String date = "2020-08-27";
-				String query = String.format("INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES (%d, %d, '%s', '%s', %d, '%s')",rid,cust_ID,car_vin,date,odometer,complain);	
-				esql.executeUpdate(query);
+				String date = LocalDate.now().toString();
+				if (newCustomer)
+					intake.add(INSERT_SERVICE_REQUEST_NEW_CUSTOMER,car_vin,date,odometer,complain);
+				else
+					intake.add(INSERT_SERVICE_REQUEST_RETURNING_RID,cust_ID,car_vin,date,odometer,complain);
+				intake.flush();
+				List<Integer> keys = intake.generatedKeys();
 		
-				System.out.println("Service request complete");
+				System.out.println("Service request complete. Request id: " + keys.get(keys.size() - 1));
 			}
 
 			else { 
@@ -607,27 +1634,32 @@ public class MechanicShop{
 		System.out.print("Please enter a service request ID: ");
 		int rid = Integer.parseInt(in.readLine());
 
-		int ridExists = esql.executeQuery("SELECT * FROM Service_Request WHERE rid='" + rid + "';");
-		int already = esql.executeQuery("SELECT * FROM Closed_Request WHERE rid='" + rid + "';");
-		if(ridExists!=0) {
-			if(already ==0) {
+		//both checks travel in one round trip
+		boolean[] found = esql.exists(
+			new Probe("Service_Request", "rid", rid),
+			new Probe("Closed_Request", "rid", rid));
+		boolean ridExists = found[0];
+		boolean already = found[1];
+		if(ridExists) {
+			if(!already) {
 				System.out.print("Please enter an Employee (Mechanic) ID: ");
 				int mid = Integer.parseInt(in.readLine());
 
-				int midExists = esql.executeQuery("SELECT * FROM Mechanic WHERE id='" + mid + "';");
+				boolean midExists = esql.mechanicExists(mid);
 
-				if(midExists!=0) {
+				if(midExists) {
 					//System.out.println("Please enter wid: ");
 					//int wid = Integer.parseInt(in.readLine());
-					System.out.println("Please enter date of closure: ");
-                          	   	String date = in.readLine();
+					System.out.println("Please enter date of closure (YYYY-MM-DD, Enter for today): ");
+					String date = in.readLine().trim();
+					if (date.isEmpty()) date = LocalDate.now().toString();
 					System.out.println("Please enter any comments: ");
                                 	String comment = in.readLine();
 					System.out.println("Please enter bill: ");
 					int bill = Integer.parseInt(in.readLine());
 					//System.out.println(wid + "  " + rid + "  " + mid + "  " + date + "  " + comment + "  " + bill); 
-					String query = String.format("INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES (%d, %d, %d, '%s', '%s', %d)",rid,rid,mid,date,comment,bill);  
-					System.out.println("Successfully closed request!");
+					int wid = esql.executeInsertReturningKey(INSERT_CLOSED_REQUEST,rid,mid,date,comment,bill);
+					System.out.println("Successfully closed request! Closing id: " + wid);
 				}
 				else {
                                 	System.out.println("Employee does not exist");
@@ -648,10 +1680,55 @@ public class MechanicShop{
 	
 	}
 	
+	/**
+	 * Asks for a window of service dates, both days included.
+	 * 
+	 * @return {from, to} with to the day after the window, or null for all dates
+	 */
+	static String[] readDateWindow() throws Exception {
+		System.out.print("Dates from and to, as YYYY-MM-DD YYYY-MM-DD (Enter for all dates): ");
+		String line = in.readLine().trim();
+		if (line.isEmpty()) return null;
+		String[] days = line.split("\\s+");
+		if (days.length != 2) throw new IllegalArgumentException("Enter two dates");
+		return new String[]{ LocalDate.parse(days[0]).toString(), LocalDate.parse(days[1]).plusDays(1).toString() };
+	}
+
+	/**
+	 * Asks for a page size and, when one is given, shows a report a page at
+	 * a time until the operator stops or the rows run out.
+	 * 
+	 * @param report the report, "report-6" to "report-10"
+	 * @param limit the most rows to show in total
+	 * @param params the report's own parameters
+	 * @return false when the operator wants the whole report at once
+	 */
+	static boolean browseReport(MechanicShop esql, String report, int limit, Object... params) throws Exception {
+		System.out.print("Rows per page (Enter for all at once): ");
+		String line = in.readLine().trim();
+		if (line.isEmpty()) return false;
+		int size = Integer.parseInt(line);
+		String cursor = null;
+		int shown = 0;
+		do {
+			ReportPages.Page page = esql.reportPages().page(report, Math.min(size, limit - shown), cursor, params);
+			printColumns(page.rows);
+			shown += page.rows.rowCount();
+			cursor = page.next;
+			if (cursor == null || shown >= limit) break;
+			System.out.print("Enter for the next page, q to stop: ");
+			line = in.readLine();
+		} while (line != null && !line.trim().equalsIgnoreCase("q"));
+		return true;
+	}
+
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
-
-			esql.executeQueryAndPrintResult("SELECT date, comment, bill FROM Closed_Request WHERE bill < 100 GROUP BY date, comment, bill");		
+			String[] window = readDateWindow();
+			if (window != null)
+				esql.executeQueryAndPrintResult(REPORT_BILL_LESS_THAN_100_BETWEEN, (Object[]) window);
+			else if (!browseReport(esql, "report-6", Integer.MAX_VALUE))
+				esql.executeQueryAndPrintResult(REPORT_BILL_LESS_THAN_100);
 		}
 		catch(Exception e){
 			System.out.println("Query could not execute");
@@ -661,7 +1738,11 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try{
-			esql.executeQueryAndPrintResult("SELECT C.fname, C.lname FROM Customer AS C WHERE 20 < (SELECT COUNT(*) FROM Owns O WHERE C.id = O.customer_id)");
+			System.out.print("List customers with more than how many cars? (default " + DEFAULT_FLEET_THRESHOLD + "): ");
+			String line = in.readLine().trim();
+			int threshold = line.isEmpty() ? DEFAULT_FLEET_THRESHOLD : Integer.parseInt(line);
+			if (!browseReport(esql, "report-7", Integer.MAX_VALUE, threshold))
+				esql.executeQueryAndPrintResult(REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS, threshold);
 		}
 		
 		catch(Exception e){
@@ -671,7 +1752,17 @@ public class MechanicShop{
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try{
-			esql.executeQueryAndPrintResult("SELECT C.make, C.model, C.year FROM Car AS C, Service_Request AS S WHERE C.vin = S.car_vin AND S.odometer < 50000 AND C.year < 1995");
+			String[] window = readDateWindow();
+			if (window != null){
+				esql.executeQueryAndPrintResult(REPORT_CARS_BEFORE_1995_WITH_50000_MILES_BETWEEN, (Object[]) window);
+				return;
+			}
+			if (browseReport(esql, "report-8", Integer.MAX_VALUE))
+				return;
+			if (esql.parallelReports() != null)
+				printColumns(esql.parallelReports().carsBefore1995With50000Miles());
+			else
+				esql.executeQueryAndPrintResult(REPORT_CARS_BEFORE_1995_WITH_50000_MILES);
 		}
 		catch(Exception e){
 			System.out.println("Query couldn't execute.");
@@ -683,7 +1774,17 @@ public class MechanicShop{
 		try{
 	System.out.print("Enter a value, k, greater than 0, for which the first k values with the highest number of service requests will be shown: ");
 	int x = Integer.parseInt(in.readLine());
-	esql.executeQueryAndPrintResult("SELECT make, model, a.num_requests FROM Car c, (SELECT car_vin, COUNT(rid) AS num_requests FROM Service_Request GROUP BY car_vin ) AS a WHERE a.car_vin = c.vin ORDER BY a.num_requests DESC LIMIT " + x);
+	String[] window = readDateWindow();
+	if (window != null){
+		esql.executeQueryAndPrintResult(REPORT_K_CARS_WITH_MOST_SERVICES_BETWEEN, window[0], window[1], x);
+		return;
+	}
+	if (browseReport(esql, "report-9", x))
+		return;
+	if (esql.parallelReports() != null)
+		printColumns(esql.parallelReports().kCarsWithMostServices(x));
+	else
+		esql.executeQueryAndPrintResult(REPORT_K_CARS_WITH_MOST_SERVICES, x);
 }
 catch(Exception e){
 	System.out.println("Query couldn't execute");
@@ -694,7 +1795,17 @@ catch(Exception e){
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//9
 		//
 		try{
-			esql.executeQueryAndPrintResult("SELECT C.fname, C.lname, total FROM Customer AS C,(SELECT SR.customer_id, SUM(CR.bill) AS total FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id) AS B WHERE C.id=B.customer_id ORDER BY B.total DESC;"); // GROUP BY C.fname, C.lname, SUM(CR.bill) ORDER BY SUM(CR.bill) DESC;");
+			String[] window = readDateWindow();
+			if (window != null){
+				esql.executeQueryAndPrintResult(REPORT_CUSTOMERS_BY_TOTAL_BILL_BETWEEN, (Object[]) window);
+				return;
+			}
+			if (browseReport(esql, "report-10", Integer.MAX_VALUE))
+				return;
+			if (esql.parallelReports() != null)
+				printColumns(esql.parallelReports().customersByTotalBill());
+			else
+				esql.executeQueryAndPrintResult(REPORT_CUSTOMERS_BY_TOTAL_BILL);
 }catch(Exception e){
 		System.out.println("Query could not exeute");
 }
@@ -0,0 +1,277 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+/**
+ * Reports 8, 9 and 10 run as several statements at once instead of one.  The
+ * scan is split into contiguous key ranges (Service_Request.rid for reports
+ * 8 and 9, Customer_Bill_Total.customer_id for report 10), each range is
+ * queried on its own pooled connection, and the partial results are merged
+ * pairwise on the fork-join pool:
+ *
+ *   8  the matching rows of every range, concatenated in range order
+ *   9  per-car request counts of every range, summed, then the top k
+ *   10 every range sorted by total, merged keeping the report's order
+ *
+ * The results have the same columns and rows, in the same order, as the
+ * single-statement reports in MechanicShop.  They are not streamed: every
+ * range is read into a ColumnarResult and the merged result is built in
+ * full before it is returned, because the script and HTTP front ends take
+ * a ColumnarResult to write as JSON, and report 9's top k is only known
+ * once the counts of every range are summed.  MechanicShop uses this class
+ * for the menu and the other front ends when started with
+ * -Dmechanicshop.parallelReports=true;
+ * -Dmechanicshop.parallelReports.partitions sets the number of ranges.
+ *
+ */
+public class ParallelReports {
+	static final String SERVICE_REQUEST_KEY_RANGE =
+		"SELECT MIN(rid), MAX(rid) FROM Service_Request";
+	static final String BILL_TOTAL_KEY_RANGE =
+		"SELECT MIN(customer_id), MAX(customer_id) FROM Customer_Bill_Total";
+	static final String CARS_BEFORE_1995_WITH_50000_MILES_IN_RANGE =
+		MechanicShop.REPORT_CARS_BEFORE_1995_WITH_50000_MILES + " AND S.rid BETWEEN ? AND ?";
+	static final String SERVICE_COUNTS_IN_RANGE =
+		"SELECT S.car_vin, C.make, C.model, COUNT(*) FROM Service_Request AS S, Car AS C WHERE C.vin = S.car_vin AND S.rid BETWEEN ? AND ? GROUP BY S.car_vin, C.make, C.model";
+	static final String CUSTOMERS_BY_TOTAL_BILL_IN_RANGE =
+		"SELECT C.fname, C.lname, B.total, B.customer_id FROM Customer_Bill_Total AS B, Customer AS C WHERE C.id = B.customer_id AND B.customer_id BETWEEN ? AND ? ORDER BY B.total DESC, B.customer_id DESC";
+
+	private final MechanicShop _esql;
+	private final int _partitions;
+	private final ExecutorService _executor;
+
+	/**
+	 * @param esql the shop whose pooled connections run the partitions
+	 * @param partitions the number of key ranges each report is split into
+	 */
+	public ParallelReports(MechanicShop esql, int partitions) {
+		if (partitions < 1) throw new IllegalArgumentException("partitions must be at least 1");
+		this._esql = esql;
+		this._partitions = partitions;
+		this._executor = TaskExecutors.newPerTaskExecutor("parallel-reports", partitions);
+	}
+
+	/**
+	 * @return one partition per processor, but no more than the pool has connections
+	 */
+	public static int defaultPartitions(MechanicShop esql) {
+		return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), esql.poolMaxSize()));
+	}
+
+	public int partitions() {
+		return _partitions;
+	}
+
+	/**
+	 * Report 8: the cars built before 1995 serviced with fewer than 50000 miles.
+	 */
+	public ColumnarResult carsBefore1995With50000Miles() throws SQLException {
+		final ColumnarResult[] parts = runPartitions(SERVICE_REQUEST_KEY_RANGE, CARS_BEFORE_1995_WITH_50000_MILES_IN_RANGE);
+		if (parts == null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CARS_BEFORE_1995_WITH_50000_MILES);
+		long[] refs = merge(parts.length, p -> rowRefs(parts, p), (a, b) -> {
+			long[] both = new long[a.length + b.length];
+			System.arraycopy(a, 0, both, 0, a.length);
+			System.arraycopy(b, 0, both, a.length, b.length);
+			return both;
+		});
+		return copyRows(parts, refs, 3);
+	}
+
+	/**
+	 * Report 9: the k cars with the most service requests.
+	 */
+	public ColumnarResult kCarsWithMostServices(int k) throws SQLException {
+		final ColumnarResult[] parts = runPartitions(SERVICE_REQUEST_KEY_RANGE, SERVICE_COUNTS_IN_RANGE);
+		if (parts == null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_K_CARS_WITH_MOST_SERVICES, k);
+		Map<String, ServiceCount> counts = merge(parts.length, p -> serviceCounts(parts[p]), (a, b) -> {
+			Map<String, ServiceCount> into = a.size() >= b.size() ? a : b;
+			Map<String, ServiceCount> from = into == a ? b : a;
+			for (ServiceCount c : from.values()){
+				ServiceCount existing = into.get(c.vin);
+				if (existing == null) into.put(c.vin, c);
+				else existing.requests += c.requests;
+			}
+			return into;
+		});
+
+		//same order as the summary table index: most requests first, then vin descending in
+		//the "C" collation, which for the ASCII vins is the order of String.compareTo
+		List<ServiceCount> top = new ArrayList<ServiceCount>(counts.values());
+		Collections.sort(top, (x, y) -> x.requests != y.requests
+			? Long.compare(y.requests, x.requests) : y.vin.compareTo(x.vin));
+		ColumnarResult.Builder result = new ColumnarResult.Builder(
+			new String[]{ "make", "model", "num_requests" },
+			new int[]{ ColumnarResult.STRING, ColumnarResult.STRING, ColumnarResult.INT });
+		for (int i = 0; i < Math.min(k, top.size()); ++i){
+			ServiceCount c = top.get(i);
+			result.addRow(c.make, c.model, (int) c.requests);
+		}
+		return result.build();
+	}
+
+	/**
+	 * Report 10: the customers in descending order of their total bill.
+	 */
+	public ColumnarResult customersByTotalBill() throws SQLException {
+		final ColumnarResult[] parts = runPartitions(BILL_TOTAL_KEY_RANGE, CUSTOMERS_BY_TOTAL_BILL_IN_RANGE);
+		if (parts == null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CUSTOMERS_BY_TOTAL_BILL);
+		long[] refs = merge(parts.length, p -> rowRefs(parts, p), (a, b) -> {
+			long[] both = new long[a.length + b.length];
+			int i = 0, j = 0, n = 0;
+			while (i < a.length && j < b.length)
+				both[n++] = compareByTotalBill(parts, a[i], b[j]) <= 0 ? a[i++] : b[j++];
+			while (i < a.length) both[n++] = a[i++];
+			while (j < b.length) both[n++] = b[j++];
+			return both;
+		});
+		return copyRows(parts, refs, 3);
+	}
+
+	/**
+	 * Stops the partition threads.
+	 */
+	public void close() {
+		_executor.shutdown();
+	}
+
+	/**
+	 * Splits the key range the first query returns into partitions and runs
+	 * the second query, with the bounds of one range as its two parameters,
+	 * for every partition concurrently.
+	 *
+	 * @return the result of every partition in key order, or null when the table is empty
+	 */
+	private ColumnarResult[] runPartitions(String keyRange, final String query) throws SQLException {
+		ColumnarResult range = _esql.executeQueryAndReturnColumns(keyRange);
+		if (range.rowCount() == 0 || range.isNull(0, 0)) return null;
+		long min = range.getLong(0, 0);
+		long max = range.getLong(0, 1);
+		int n = (int) Math.min(_partitions, max - min + 1);
+
+		List<Future<ColumnarResult>> futures = new ArrayList<Future<ColumnarResult>>(n);
+		for (int p = 0; p < n; ++p){
+			final int lo = (int) (min + (max - min + 1) * p / n);
+			final int hi = (int) (min + (max - min + 1) * (p + 1) / n - 1);
+			futures.add(_executor.submit(() -> _esql.executeQueryAndReturnColumns(query, lo, hi)));
+		}
+		ColumnarResult[] parts = new ColumnarResult[n];
+		try{
+			for (int p = 0; p < n; ++p)
+				parts[p] = futures.get(p).get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a report partition", e);
+		}catch(ExecutionException e){
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Report partition failed: " + e.getCause(), e.getCause());
+		}finally{
+			for (Future<ColumnarResult> f : futures)
+				f.cancel(true);
+		}
+		return parts;
+	}
+
+	/**
+	 * Combines a value per partition into one with the fork-join pool.
+	 */
+	private interface Merge<P> {
+		P merge(P left, P right);
+	}
+
+	private static <P> P merge(int count, IntFunction<P> leaf, Merge<P> merge) {
+		return ForkJoinPool.commonPool().invoke(new MergeTask<P>(0, count, leaf, merge));
+	}
+
+	/**
+	 * Merges the partitions [from, to) by merging each half, the left one forked.
+	 */
+	private static class MergeTask<P> extends RecursiveTask<P> {
+		private static final long serialVersionUID = 1L;
+
+		private final int _from;
+		private final int _to;
+		private final IntFunction<P> _leaf;
+		private final Merge<P> _merge;
+
+		MergeTask(int from, int to, IntFunction<P> leaf, Merge<P> merge) {
+			this._from = from;
+			this._to = to;
+			this._leaf = leaf;
+			this._merge = merge;
+		}
+
+		@Override
+		protected P compute() {
+			if (_to - _from == 1) return _leaf.apply(_from);
+			int mid = (_from + _to) >>> 1;
+			MergeTask<P> left = new MergeTask<P>(_from, mid, _leaf, _merge);
+			left.fork();
+			P right = new MergeTask<P>(mid, _to, _leaf, _merge).compute();
+			return _merge.merge(left.join(), right);
+		}
+	}
+
+	//every row of one partition as (partition << 32 | row)
+	private static long[] rowRefs(ColumnarResult[] parts, int partition) {
+		long[] refs = new long[parts[partition].rowCount()];
+		for (int row = 0; row < refs.length; ++row)
+			refs[row] = ((long) partition << 32) | row;
+		return refs;
+	}
+
+	private static ColumnarResult copyRows(ColumnarResult[] parts, long[] refs, int columns) {
+		String[] names = new String[columns];
+		int[] types = new int[columns];
+		for (int i = 0; i < columns; ++i){
+			names[i] = parts[0].columnName(i);
+			types[i] = parts[0].columnType(i);
+		}
+		ColumnarResult.Builder result = new ColumnarResult.Builder(names, types);
+		for (long ref : refs)
+			result.copyRow(parts[(int) (ref >>> 32)], (int) ref);
+		return result.build();
+	}
+
+	//total descending, then customer_id descending
+	private static int compareByTotalBill(ColumnarResult[] parts, long a, long b) {
+		ColumnarResult x = parts[(int) (a >>> 32)];
+		ColumnarResult y = parts[(int) (b >>> 32)];
+		int c = Long.compare(y.getLong((int) b, 2), x.getLong((int) a, 2));
+		return c != 0 ? c : Long.compare(y.getLong((int) b, 3), x.getLong((int) a, 3));
+	}
+
+	/**
+	 * The requests counted for one car.
+	 */
+	private static class ServiceCount {
+		final String vin;
+		final String make;
+		final String model;
+		long requests;
+
+		ServiceCount(String vin, String make, String model, long requests) {
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.requests = requests;
+		}
+	}
+
+	private static Map<String, ServiceCount> serviceCounts(ColumnarResult part) {
+		Map<String, ServiceCount> counts = new HashMap<String, ServiceCount>(part.rowCount() * 2);
+		for (int row = 0; row < part.rowCount(); ++row){
+			String vin = part.getString(row, 0);
+			counts.put(vin, new ServiceCount(vin, part.getString(row, 1), part.getString(row, 2), part.getLong(row, 3)));
+		}
+		return counts;
+	}
+}//end ParallelReports
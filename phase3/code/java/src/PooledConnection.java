@@ -0,0 +1,82 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical connection handed out by a ConnectionPool.  Closing it returns
+ * the connection to the pool; call markBroken() first when the connection
+ * failed so the pool replaces it instead of reusing it.
+ *
+ */
+public class PooledConnection implements AutoCloseable {
+	//prepared statements kept open per physical connection
+	static final int STATEMENT_CACHE_SIZE = Integer.getInteger("mechanicshop.statementCacheSize", 64);
+
+	private final ConnectionPool _pool;
+	private final Connection _connection;
+	private final StatementCache _statements;
+	private volatile long _lastUsed = System.currentTimeMillis();
+	private boolean _broken = false;
+	private boolean _borrowed = false;
+
+	PooledConnection(ConnectionPool pool, Connection connection) {
+		this._pool = pool;
+		this._connection = connection;
+		this._statements = new StatementCache(connection, STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * @return the underlying physical connection
+	 */
+	public Connection connection() {
+		return _connection;
+	}
+
+	/**
+	 * @return the prepared statements cached on this connection
+	 */
+	public StatementCache statements() {
+		return _statements;
+	}
+
+	/**
+	 * Flags the connection as unusable; it is closed instead of being returned to the pool.
+	 */
+	public void markBroken() {
+		_broken = true;
+	}
+
+	public boolean isBroken() {
+		return _broken;
+	}
+
+	long lastUsed() {
+		return _lastUsed;
+	}
+
+	void touch() {
+		_lastUsed = System.currentTimeMillis();
+	}
+
+	void markBorrowed() {
+		_borrowed = true;
+	}
+
+	void closePhysical() {
+		_statements.clear();
+		try{
+			_connection.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+	}
+
+	/**
+	 * Returns the connection to its pool.
+	 */
+	@Override
+	public void close() {
+		if (!_borrowed) return;
+		_borrowed = false;
+		_pool.release(this);
+	}
+}//end PooledConnection
@@ -0,0 +1,277 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measurements of every statement MechanicShop sends, grouped by statement
+ * shape: the SQL text with literals replaced by '?', so parameterized and
+ * literal variants of one query share an entry.  For each shape it keeps a
+ * latency histogram, call, error, row and byte counts and the last error
+ * message; across all statements it keeps a histogram of the time spent
+ * waiting for a pooled connection.
+ *
+ * Statements slower than the slow-query threshold are reported to the slow
+ * query log by MechanicShop, with their bind values and EXPLAIN plan.  The
+ * measurements are published over JMX and can be dumped as text
+ * periodically.  All methods are thread safe.
+ *
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+	/**
+	 * What one statement execution read or wrote, filled in while it runs.
+	 */
+	public static class Call {
+		long rows = 0;
+		long bytes = 0;
+
+		void rows(long n) {
+			rows += n;
+		}
+
+		void bytes(long n) {
+			bytes += n;
+		}
+
+		//counts the rows and approximate bytes of a columnar result
+		void read(ColumnarResult result) {
+			rows += result.rowCount();
+			bytes += result.byteSize();
+		}
+	}
+
+	/**
+	 * The measurements of one statement shape.
+	 */
+	static class Shape {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		volatile String lastError = null;
+
+		String summary() {
+			return String.format("errors=%d rows=%d bytes=%d %s%s", errors.get(), rows.get(), bytes.get(),
+				latency.summary(), lastError == null ? "" : " lastError=" + lastError);
+		}
+	}
+
+	//shapes beyond this many are counted under OTHER, so ad-hoc SQL cannot grow the map without bound
+	private static final int MAX_SHAPES = 1000;
+	private static final String OTHER = "(other statements)";
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final AtomicLong REGISTRATIONS = new AtomicLong();
+
+	private final Map<String, Shape> _shapes = new ConcurrentHashMap<String, Shape>();
+	private final LatencyHistogram _poolWait = new LatencyHistogram();
+	private final AtomicLong _slowQueries = new AtomicLong();
+	private final long _slowNanos;
+	private final PrintWriter _slowLog;
+	private ScheduledExecutorService _dumper = null;
+	private ObjectName _registeredName = null;
+
+	/**
+	 * @param slowQueryMillis statements taking at least this long are slow; 0 disables the slow query log
+	 * @param slowQueryLog file the slow query log is appended to, or null for standard error
+	 */
+	public QueryMetrics(long slowQueryMillis, String slowQueryLog) {
+		this._slowNanos = slowQueryMillis * 1000000L;
+		PrintWriter log = null;
+		if (slowQueryLog != null){
+			try{
+				log = new PrintWriter(new FileWriter(slowQueryLog, true), true);
+			}catch(IOException e){
+				System.err.println("Cannot open the slow query log " + slowQueryLog + ": " + e.getMessage());
+			}
+		}
+		this._slowLog = log != null ? log : new PrintWriter(System.err, true);
+	}
+
+	/**
+	 * @return the SQL with string and number literals replaced by '?' and whitespace collapsed
+	 */
+	static String shapeOf(String sql) {
+		String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+		shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+		return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+	}
+
+	/**
+	 * Records one statement execution.
+	 *
+	 * @param sql the statement text
+	 * @param nanos how long it took, including the wait for a connection
+	 * @param call the rows and bytes it read or wrote
+	 * @param error the failure, or null when it succeeded
+	 * @return true when the execution was slow and should be logged
+	 */
+	public boolean record(String sql, long nanos, Call call, Exception error) {
+		Shape shape = shape(shapeOf(sql));
+		shape.latency.record(nanos);
+		shape.rows.addAndGet(call.rows);
+		shape.bytes.addAndGet(call.bytes);
+		if (error != null){
+			shape.errors.incrementAndGet();
+			shape.lastError = error.getMessage();
+		}
+		if (_slowNanos > 0 && nanos >= _slowNanos){
+			_slowQueries.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records how long one borrow waited for a pooled connection.
+	 */
+	public void recordPoolWait(long nanos) {
+		_poolWait.record(nanos);
+	}
+
+	/**
+	 * Appends an entry to the slow query log.
+	 *
+	 * @param plan the EXPLAIN output, or null when none could be obtained
+	 */
+	public void logSlowQuery(String sql, Object[] params, long nanos, Call call, List<String> plan) {
+		StringBuilder entry = new StringBuilder(256);
+		entry.append(String.format("SLOW %.3f ms rows=%d bytes=%d: %s", nanos / 1e6, call.rows, call.bytes,
+			WHITESPACE.matcher(sql).replaceAll(" ").trim()));
+		if (params != null && params.length > 0)
+			entry.append("\n  binds: ").append(Arrays.deepToString(params));
+		if (plan != null)
+			for (String line : plan)
+				entry.append("\n    ").append(line);
+		_slowLog.println(entry);
+	}
+
+	private Shape shape(String key) {
+		Shape shape = _shapes.get(key);
+		if (shape != null) return shape;
+		if (_shapes.size() >= MAX_SHAPES) key = OTHER;
+		return _shapes.computeIfAbsent(key, k -> new Shape());
+	}
+
+	@Override
+	public long getQueryCount() {
+		long count = 0;
+		for (Shape s : _shapes.values())
+			count += s.latency.count();
+		return count;
+	}
+
+	@Override
+	public long getErrorCount() {
+		long count = 0;
+		for (Shape s : _shapes.values())
+			count += s.errors.get();
+		return count;
+	}
+
+	@Override
+	public long getSlowQueryCount() {
+		return _slowQueries.get();
+	}
+
+	@Override
+	public double getPoolWaitP99Millis() {
+		return _poolWait.percentileNanos(99) / 1e6;
+	}
+
+	@Override
+	public Map<String, String> getShapeSummaries() {
+		Map<String, String> summaries = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, Shape> e : sortedShapes())
+			summaries.put(e.getKey(), e.getValue().summary());
+		return summaries;
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder out = new StringBuilder(1024);
+		out.append(String.format("queries=%d errors=%d slow=%d pool wait: %s%n",
+			getQueryCount(), getErrorCount(), getSlowQueryCount(), _poolWait.summary()));
+		for (Map.Entry<String, Shape> e : sortedShapes())
+			out.append("  ").append(e.getValue().summary()).append("\n    ").append(e.getKey()).append('\n');
+		return out.toString();
+	}
+
+	@Override
+	public void reset() {
+		_shapes.clear();
+		_poolWait.reset();
+		_slowQueries.set(0);
+	}
+
+	//a snapshot of the shapes, the ones with the most total time first
+	private List<Map.Entry<String, Shape>> sortedShapes() {
+		List<Map.Entry<String, Shape>> shapes = new ArrayList<Map.Entry<String, Shape>>(_shapes.entrySet());
+		Collections.sort(shapes, (a, b) -> {
+			LatencyHistogram x = a.getValue().latency;
+			LatencyHistogram y = b.getValue().latency;
+			return Double.compare(y.meanNanos() * y.count(), x.meanNanos() * x.count());
+		});
+		return shapes;
+	}
+
+	/**
+	 * Publishes the metrics as the platform MBean mechanicshop:type=QueryMetrics
+	 * (with an id when several instances share a JVM).
+	 */
+	public void registerMBean() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try{
+			long n = REGISTRATIONS.incrementAndGet();
+			ObjectName name = new ObjectName("mechanicshop:type=QueryMetrics" + (n == 1 ? "" : ",id=" + n));
+			server.registerMBean(this, name);
+			_registeredName = name;
+		}catch(JMException e){
+			System.err.println("Query metrics are not available over JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes dump() to standard error every given number of seconds.
+	 */
+	public void startDump(long periodSeconds) {
+		_dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "query-metrics-dump");
+			t.setDaemon(true);
+			return t;
+		});
+		_dumper.scheduleAtFixedRate(() -> System.err.print(dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the periodic dump and unregisters the MBean.
+	 */
+	public void close() {
+		if (_dumper != null) _dumper.shutdownNow();
+		if (_registeredName != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(_registeredName);
+			}catch(JMException e){
+				// already gone
+			}
+		}
+		if (_slowLog != null) _slowLog.flush();
+	}
+}//end QueryMetrics
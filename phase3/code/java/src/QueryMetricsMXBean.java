@@ -0,0 +1,31 @@
+import java.util.Map;
+
+/**
+ * The JMX view of QueryMetrics, registered as mechanicshop:type=QueryMetrics.
+ * Times are in milliseconds.
+ *
+ */
+public interface QueryMetricsMXBean {
+	long getQueryCount();
+
+	long getErrorCount();
+
+	long getSlowQueryCount();
+
+	double getPoolWaitP99Millis();
+
+	/**
+	 * @return one summary line (errors, rows, bytes, latency) per statement shape
+	 */
+	Map<String, String> getShapeSummaries();
+
+	/**
+	 * @return the text report also written by the periodic dump
+	 */
+	String dump();
+
+	/**
+	 * Forgets every recorded measurement.
+	 */
+	void reset();
+}//end QueryMetricsMXBean
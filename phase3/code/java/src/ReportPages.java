@@ -0,0 +1,198 @@
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports 6-10 a page at a time, with keyset (seek) pagination: every report
+ * has a total order on a unique sort key, and the next page is the rows
+ * after the last row shown in that order, found by a range predicate on the
+ * key instead of an OFFSET.  Page N therefore costs the same as page 1.
+ *
+ *   6  bill, date, comment (nulls first)
+ *   7  car_count descending, customer_id
+ *   8  rid
+ *   9  num_requests descending, car_vin descending
+ *   10 total descending, customer_id descending
+ *
+ * The paged reports return their key columns in addition to the columns of
+ * the unpaged ones.  The position after a page is handed out as an opaque
+ * cursor string, so the script and HTTP front ends can pass it back.
+ *
+ */
+public class ReportPages {
+	/**
+	 * One page of a report.
+	 */
+	public static class Page {
+		public final ColumnarResult rows;
+		//the cursor of the following page, null after the last page
+		public final String next;
+
+		Page(ColumnarResult rows, String next) {
+			this.rows = rows;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * The two statements of a paged report.  Both take the report's own
+	 * parameters first and the page size last; next also takes the key of
+	 * the last row shown, bound as text and cast in the statement, in
+	 * between.  keyColumns lists the result columns bound to those
+	 * placeholders, in order.
+	 */
+	private static class PagedReport {
+		final String first;
+		final String next;
+		final int[] keyColumns;
+
+		PagedReport(String first, String next, int... keyColumns) {
+			this.first = first;
+			this.next = next;
+			this.keyColumns = keyColumns;
+		}
+	}
+
+	static final String REPORT_BILL_LESS_THAN_100_PAGE =
+		"SELECT date, comment, bill FROM Closed_Request WHERE bill < 100 %s" +
+		"GROUP BY date, comment, bill ORDER BY bill, date, comment IS NOT NULL, COALESCE(comment, '') LIMIT ?";
+	static final String REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS_PAGE =
+		"SELECT C.fname, C.lname, F.car_count, F.customer_id FROM Customer_Car_Count AS F, Customer AS C " +
+		"WHERE C.id = F.customer_id AND F.car_count > ? %sORDER BY F.car_count DESC, F.customer_id LIMIT ?";
+	static final String REPORT_CARS_BEFORE_1995_WITH_50000_MILES_PAGE =
+		"SELECT C.make, C.model, C.year, S.rid FROM Car AS C, Service_Request AS S " +
+		"WHERE C.vin = S.car_vin AND S.odometer < 50000 AND C.year < 1995 %sORDER BY S.rid LIMIT ?";
+	static final String REPORT_CARS_WITH_MOST_SERVICES_PAGE =
+		"SELECT C.make, C.model, S.num_requests, S.car_vin FROM Car_Service_Count AS S, Car AS C " +
+		"WHERE C.vin = S.car_vin %sORDER BY S.num_requests DESC, S.car_vin COLLATE \"C\" DESC LIMIT ?";
+	static final String REPORT_CUSTOMERS_BY_TOTAL_BILL_PAGE =
+		"SELECT C.fname, C.lname, B.total, B.customer_id FROM Customer_Bill_Total AS B, Customer AS C " +
+		"WHERE C.id = B.customer_id %sORDER BY B.total DESC, B.customer_id DESC LIMIT ?";
+
+	private static final Map<String, PagedReport> REPORTS = new HashMap<String, PagedReport>();
+	static {
+		REPORTS.put("report-6", paged(REPORT_BILL_LESS_THAN_100_PAGE,
+			"AND bill >= CAST(? AS INTEGER) AND (bill, date, comment IS NOT NULL, COALESCE(comment, '')) > " +
+			"(CAST(? AS INTEGER), CAST(? AS DATE), CAST(? AS TEXT) IS NOT NULL, COALESCE(CAST(? AS TEXT), '')) ",
+			2, 2, 0, 1, 1));
+		//mixed directions rule out a row comparison; the first bound keeps the index range scan
+		REPORTS.put("report-7", paged(REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS_PAGE,
+			"AND F.car_count <= CAST(? AS INTEGER) AND (F.car_count < CAST(? AS INTEGER) OR F.customer_id > CAST(? AS INTEGER)) ",
+			2, 2, 3));
+		REPORTS.put("report-8", paged(REPORT_CARS_BEFORE_1995_WITH_50000_MILES_PAGE,
+			"AND S.rid > CAST(? AS INTEGER) ",
+			3));
+		REPORTS.put("report-9", paged(REPORT_CARS_WITH_MOST_SERVICES_PAGE,
+			"AND (S.num_requests, S.car_vin COLLATE \"C\") < (CAST(? AS INTEGER), CAST(? AS VARCHAR)) ",
+			2, 3));
+		REPORTS.put("report-10", paged(REPORT_CUSTOMERS_BY_TOTAL_BILL_PAGE,
+			"AND (B.total, B.customer_id) < (CAST(? AS BIGINT), CAST(? AS INTEGER)) ",
+			2, 3));
+	}
+
+	//marks the values in a cursor, 'v' followed by the value's length, ':' and the value; null keys are written as 'n'
+	private static final char VALUE = 'v';
+	private static final char NULL = 'n';
+	private static final char LENGTH_END = ':';
+
+	private final MechanicShop _esql;
+
+	public ReportPages(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	private static PagedReport paged(String template, String seek, int... keyColumns) {
+		return new PagedReport(String.format(template, ""), String.format(template, seek), keyColumns);
+	}
+
+	/**
+	 * @return true when the report can be paged
+	 */
+	public static boolean isPaged(String report) {
+		return REPORTS.containsKey(report);
+	}
+
+	/**
+	 * Reads one page of a report.
+	 *
+	 * @param report the report, "report-6" to "report-10"
+	 * @param size the most rows on the page
+	 * @param cursor the next cursor of the previous page, or null for the first page
+	 * @param params the report's own parameters (report 7: the car count threshold)
+	 * @return the page and the cursor of the following one
+	 * @throws java.lang.IllegalArgumentException for an unknown report, a bad size or a malformed cursor
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public Page page(String report, int size, String cursor, Object... params) throws SQLException {
+		PagedReport paged = REPORTS.get(report);
+		if (paged == null) throw new IllegalArgumentException("Report cannot be paged: " + report);
+		if (size <= 0) throw new IllegalArgumentException("The page size must be greater than 0");
+
+		List<Object> binds = new ArrayList<Object>();
+		for (Object p : params)
+			binds.add(p);
+		String sql = paged.first;
+		if (cursor != null){
+			String[] key = decode(cursor);
+			if (key.length != paged.keyColumns.length)
+				throw new IllegalArgumentException("The cursor does not belong to " + report);
+			for (String value : key)
+				binds.add(value);
+			sql = paged.next;
+		}
+		//one row past the page tells whether another page follows
+		binds.add(size + 1);
+		ColumnarResult rows = _esql.executeQueryAndReturnColumns(sql, binds.toArray());
+		if (rows.rowCount() <= size) return new Page(rows, null);
+
+		rows = rows.firstRows(size);
+		String[] key = new String[paged.keyColumns.length];
+		for (int i = 0; i < key.length; ++i)
+			key[i] = rows.getString(size - 1, paged.keyColumns[i]);
+		return new Page(rows, encode(key));
+	}
+
+	static String encode(String[] key) {
+		StringBuilder text = new StringBuilder();
+		for (String value : key){
+			if (value == null) text.append(NULL);
+			else text.append(VALUE).append(value.length()).append(LENGTH_END).append(value);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String[] decode(String cursor) {
+		String text;
+		try{
+			text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		}catch(IllegalArgumentException e){
+			throw new IllegalArgumentException("Malformed cursor: " + cursor);
+		}
+		List<String> key = new ArrayList<String>();
+		int i = 0;
+		while (i < text.length()){
+			char mark = text.charAt(i++);
+			if (mark == NULL){
+				key.add(null);
+				continue;
+			}
+			int end = text.indexOf(LENGTH_END, i);
+			if (mark != VALUE || end < 0) throw new IllegalArgumentException("Malformed cursor: " + cursor);
+			int length;
+			try{
+				length = Integer.parseInt(text.substring(i, end));
+			}catch(NumberFormatException e){
+				throw new IllegalArgumentException("Malformed cursor: " + cursor);
+			}
+			i = end + 1;
+			if (length < 0 || length > text.length() - i) throw new IllegalArgumentException("Malformed cursor: " + cursor);
+			key.add(text.substring(i, i + length));
+			i += length;
+		}
+		return key.toArray(new String[key.size()]);
+	}
+}//end ReportPages
@@ -0,0 +1,225 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless MechanicShop: reads one command per line from a file or standard
+ * input and writes one JSON object per command to standard output, in input
+ * order.  A line is a command name followed by key=value arguments; values
+ * containing spaces are double-quoted, with \" and \\ escapes.  Blank lines
+ * and lines starting with # are skipped.  See ShopCommands for the commands.
+ *
+ *   add-customer fname=Ann lname=Lee phone=(555)555-0100 address="1 Main St"
+ *   report-9 k=50
+ *   report-10 page=100 after=<next of the previous page>
+ *
+ * Consecutive writes are queued and applied together, up to --batch of them
+ * per transaction, so they share one connection and one commit.  A report
+ * or a close-request first applies the writes queued before it.  When a
+ * transaction fails, every command in it is reported as failed.
+ *
+ * Usage: java ScriptRunner <dbname> <port> <user> [file | -] [--batch n]
+ *
+ */
+public class ScriptRunner {
+	/**
+	 * A queued write waiting for its transaction to be applied.
+	 */
+	private static class Pending {
+		final long line;
+		final String command;
+		final boolean returnsKey;
+
+		Pending(long line, String command, boolean returnsKey) {
+			this.line = line;
+			this.command = command;
+			this.returnsKey = returnsKey;
+		}
+	}
+
+	private final ShopCommands _commands;
+	private final UnitOfWork _batch;
+	private final int _batchSize;
+	private final PrintWriter _out;
+	private final List<Pending> _pending = new ArrayList<Pending>();
+	private long _succeeded = 0;
+	private long _failed = 0;
+
+	public ScriptRunner(MechanicShop esql, int batchSize, PrintWriter out) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be greater than 0");
+		this._commands = new ShopCommands(esql);
+		this._batch = esql.beginUnitOfWork();
+		this._batchSize = batchSize;
+		this._out = out;
+	}
+
+	/**
+	 * Executes every command read from the input.
+	 *
+	 * @return the number of commands that failed
+	 * @throws java.io.IOException when the input could not be read
+	 */
+	public long run(BufferedReader input) throws IOException {
+		long lineNumber = 0;
+		long start = System.nanoTime();
+		String line;
+		while ((line = input.readLine()) != null){
+			++lineNumber;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+			execute(lineNumber, trimmed);
+		}
+		flush();
+		_out.flush();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d commands succeeded, %d failed in %.2f s (%.0f commands/s)%n",
+			_succeeded, _failed, seconds, (_succeeded + _failed) / Math.max(seconds, 1e-9));
+		return _failed;
+	}
+
+	private void execute(long line, String text) {
+		String command = null;
+		try{
+			Map<String, String> args = new HashMap<String, String>();
+			command = parse(text, args);
+			if (ShopCommands.isReport(command) || ShopCommands.readsBeforeWriting(command))
+				flush();
+			if (ShopCommands.isPaged(command, args)){
+				ReportPages.Page page = _commands.reportPage(command, args);
+				succeeded(new Json().field("line", line).field("command", command).field("ok", true)
+					.table(page.rows).field("next", page.next));
+				return;
+			}
+			if (ShopCommands.isReport(command)){
+				ColumnarResult rows = _commands.report(command, args);
+				succeeded(new Json().field("line", line).field("command", command).field("ok", true).table(rows));
+				return;
+			}
+			boolean returnsKey = _commands.queue(_batch, command, args);
+			_pending.add(new Pending(line, command, returnsKey));
+			if (_pending.size() >= _batchSize) flush();
+		}catch(IllegalArgumentException | SQLException e){
+			//writes queued before this line are reported first, to keep the output in input order
+			flush();
+			failed(line, command, e.getMessage());
+		}
+	}
+
+	//applies the queued writes and reports each of them
+	private void flush() {
+		if (_pending.isEmpty()) return;
+		try{
+			_batch.flush();
+			int key = 0;
+			for (Pending p : _pending){
+				Json result = new Json().field("line", p.line).field("command", p.command).field("ok", true);
+				if (p.returnsKey) result.field("id", _batch.generatedKeys().get(key++));
+				succeeded(result);
+			}
+		}catch(SQLException e){
+			for (Pending p : _pending)
+				failed(p.line, p.command, e.getMessage());
+		}finally{
+			_pending.clear();
+			_out.flush();
+		}
+	}
+
+	private void succeeded(Json result) {
+		++_succeeded;
+		_out.println(result);
+	}
+
+	private void failed(long line, String command, String message) {
+		++_failed;
+		_out.println(new Json().field("line", line).field("command", command).field("ok", false).field("error", message));
+	}
+
+	/**
+	 * Splits a command line into the command name, returned, and its
+	 * key=value arguments, stored in args.
+	 *
+	 * @throws java.lang.IllegalArgumentException when the line is malformed
+	 */
+	static String parse(String text, Map<String, String> args) {
+		int i = 0;
+		int n = text.length();
+		String command = null;
+		while (i < n){
+			while (i < n && Character.isWhitespace(text.charAt(i))) ++i;
+			if (i == n) break;
+			int start = i;
+			while (i < n && !Character.isWhitespace(text.charAt(i)) && text.charAt(i) != '=') ++i;
+			String word = text.substring(start, i);
+			if (i == n || text.charAt(i) != '='){
+				if (command != null)
+					throw new IllegalArgumentException("Expected key=value but found: " + word);
+				command = word;
+				continue;
+			}
+			++i;
+			StringBuilder value = new StringBuilder();
+			if (i < n && text.charAt(i) == '"'){
+				++i;
+				while (i < n && text.charAt(i) != '"'){
+					if (text.charAt(i) == '\\' && i + 1 < n) ++i;
+					value.append(text.charAt(i++));
+				}
+				if (i == n)
+					throw new IllegalArgumentException("Unterminated quote in value of " + word);
+				++i;
+			}else{
+				while (i < n && !Character.isWhitespace(text.charAt(i)))
+					value.append(text.charAt(i++));
+			}
+			args.put(word, value.toString());
+		}
+		if (command == null)
+			throw new IllegalArgumentException("Missing command name");
+		return command;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + ScriptRunner.class.getName() +
+				" <dbname> <port> <user> [file | -] [--batch n]");
+			return;
+		}
+		String file = "-";
+		int batchSize = 500;
+		for (int i = 3; i < args.length; ++i){
+			if (args[i].equals("--batch")) batchSize = Integer.parseInt(args[++i]);
+			else file = args[i];
+		}
+		MechanicShop esql = null;
+		long failed = 0;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "", System.err);
+			PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+			BufferedReader input = file.equals("-")
+				? new BufferedReader(new InputStreamReader(System.in))
+				: new BufferedReader(new FileReader(file));
+			try{
+				failed = new ScriptRunner(esql, batchSize, out).run(input);
+			}finally{
+				input.close();
+			}
+		}catch(Exception e){
+			System.err.println("Script failed: " + e.getMessage());
+			failed = 1;
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+		if (failed > 0) System.exit(1);
+	}
+}//end ScriptRunner
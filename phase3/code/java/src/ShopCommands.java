@@ -0,0 +1,197 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * The MechanicShop operations in a form that takes named arguments instead
+ * of prompting, for the non-interactive front ends.  Writes are queued on a
+ * unit of work so callers can apply many of them in one transaction; reports
+ * run right away and return their rows.
+ *
+ * Commands and their arguments ([] marks optional ones):
+ *   add-customer fname lname phone address
+ *   add-mechanic fname lname experience
+ *   add-car vin make model year
+ *   add-ownership customer vin
+ *   insert-request customer vin odometer [complain] [date]
+ *   close-request rid mid bill [comment] [date]
+ *   search-customers term [limit] [offset]
+ *   report-6, report-7 [min], report-8, report-9 [k], report-10
+ * Reports 6, 8, 9 and 10 take from and to dates (both included) to cover
+ * only that window of service history.  Reports also take page=size and
+ * after=cursor to read one page at a time (see ReportPages).  Dates default
+ * to today.  Reports 8-10 run partitioned when the shop has parallel
+ * reports switched on (see ParallelReports).
+ *
+ */
+public class ShopCommands {
+	private final MechanicShop _esql;
+
+	public ShopCommands(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * @return true when the command is one of the reports or the customer
+	 *         search, which read rows instead of queuing a write
+	 */
+	public static boolean isReport(String command) {
+		return command.startsWith("report-") || command.equals("search-customers");
+	}
+
+	/**
+	 * @return true when a report command asks for one page instead of every row
+	 */
+	public static boolean isPaged(String command, Map<String, String> args) {
+		return command.startsWith("report-") && args.containsKey("page");
+	}
+
+	/**
+	 * @return true when the command validates against committed rows, so
+	 *         writes queued before it must be applied first
+	 */
+	public static boolean readsBeforeWriting(String command) {
+		return command.equals("close-request");
+	}
+
+	/**
+	 * Queues the write performed by a command.
+	 *
+	 * @return true when the write returns a generated key on flush
+	 * @throws java.lang.IllegalArgumentException for an unknown command, a
+	 *         missing argument or a request that cannot be closed
+	 * @throws java.sql.SQLException when a validation query failed
+	 */
+	public boolean queue(UnitOfWork uow, String command, Map<String, String> args) throws SQLException {
+		switch (command){
+			case "add-customer":
+				uow.addCustomer(text(args, "fname", 32), text(args, "lname", 32), text(args, "phone", 13), text(args, "address", 256));
+				return true;
+			case "add-mechanic":
+				uow.addMechanic(text(args, "fname", 32), text(args, "lname", 32), number(args, "experience"));
+				return true;
+			case "add-car":
+				uow.addCar(text(args, "vin", 16), text(args, "make", 32), text(args, "model", 32), number(args, "year"));
+				return false;
+			case "add-ownership":
+				uow.add(MechanicShop.INSERT_OWNS, number(args, "customer"), text(args, "vin", 16));
+				return false;
+			case "insert-request":
+				uow.add(MechanicShop.INSERT_SERVICE_REQUEST_RETURNING_RID, number(args, "customer"), text(args, "vin", 16),
+					date(args), number(args, "odometer"), args.get("complain"));
+				return true;
+			case "close-request":
+				int rid = number(args, "rid");
+				int mid = number(args, "mid");
+				boolean[] found = _esql.exists(
+					new MechanicShop.Probe("Service_Request", "rid", rid),
+					new MechanicShop.Probe("Closed_Request", "rid", rid));
+				if (!found[0]) throw new IllegalArgumentException("Request " + rid + " does not exist");
+				if (found[1]) throw new IllegalArgumentException("Request " + rid + " is already closed");
+				if (!_esql.mechanicExists(mid)) throw new IllegalArgumentException("Mechanic " + mid + " does not exist");
+				uow.add(MechanicShop.INSERT_CLOSED_REQUEST, rid, mid, date(args), args.get("comment"), number(args, "bill"));
+				return true;
+			default:
+				throw new IllegalArgumentException("Unknown command: " + command);
+		}
+	}
+
+	/**
+	 * Runs a report.
+	 *
+	 * @throws java.lang.IllegalArgumentException for an unknown report or a bad argument
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public ColumnarResult report(String command, Map<String, String> args) throws SQLException {
+		ParallelReports parallel = _esql.parallelReports();
+		String[] window = window(args);
+		switch (command){
+			case "search-customers":
+				int limit = args.containsKey("limit") ? number(args, "limit") : MechanicShop.SEARCH_PAGE_SIZE;
+				int offset = args.containsKey("offset") ? number(args, "offset") : 0;
+				return _esql.searchCustomers(text(args, "term", 256), limit, offset);
+			case "report-6":
+				if (window != null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_BILL_LESS_THAN_100_BETWEEN, (Object[]) window);
+				return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_BILL_LESS_THAN_100);
+			case "report-7": return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CUSTOMERS_WITH_MORE_THAN_N_CARS, threshold(args));
+			case "report-8":
+				if (window != null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CARS_BEFORE_1995_WITH_50000_MILES_BETWEEN, (Object[]) window);
+				if (parallel != null) return parallel.carsBefore1995With50000Miles();
+				return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CARS_BEFORE_1995_WITH_50000_MILES);
+			case "report-9":
+				int k = args.containsKey("k") ? number(args, "k") : 10;
+				if (k <= 0) throw new IllegalArgumentException("k must be greater than 0");
+				if (window != null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_K_CARS_WITH_MOST_SERVICES_BETWEEN, window[0], window[1], k);
+				if (parallel != null) return parallel.kCarsWithMostServices(k);
+				return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_K_CARS_WITH_MOST_SERVICES, k);
+			case "report-10":
+				if (window != null) return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CUSTOMERS_BY_TOTAL_BILL_BETWEEN, (Object[]) window);
+				if (parallel != null) return parallel.customersByTotalBill();
+				return _esql.executeQueryAndReturnColumns(MechanicShop.REPORT_CUSTOMERS_BY_TOTAL_BILL);
+			default:
+				throw new IllegalArgumentException("Unknown report: " + command);
+		}
+	}
+
+	/**
+	 * Reads one page of a report, from the start or after the given cursor.
+	 * Paged, report-9 walks the whole ranking; k does not apply.
+	 *
+	 * @throws java.lang.IllegalArgumentException for an unknown report, a bad
+	 *         argument or a malformed cursor
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public ReportPages.Page reportPage(String command, Map<String, String> args) throws SQLException {
+		int size = number(args, "page");
+		String after = args.get("after");
+		if (command.equals("report-7"))
+			return _esql.reportPages().page(command, size, after, threshold(args));
+		return _esql.reportPages().page(command, size, after);
+	}
+
+	//{from, day after to} from the from and to arguments, both days included; null when neither is given
+	private static String[] window(Map<String, String> args) {
+		String from = args.get("from");
+		String to = args.get("to");
+		if (from == null && to == null) return null;
+		try{
+			return new String[]{
+				from == null ? "-infinity" : LocalDate.parse(from).toString(),
+				to == null ? "infinity" : LocalDate.parse(to).plusDays(1).toString() };
+		}catch(DateTimeParseException e){
+			throw new IllegalArgumentException("Dates must be YYYY-MM-DD: " + e.getParsedString());
+		}
+	}
+
+	private static int threshold(Map<String, String> args) {
+		int min = args.containsKey("min") ? number(args, "min") : MechanicShop.DEFAULT_FLEET_THRESHOLD;
+		if (min < 0) throw new IllegalArgumentException("min cannot be negative");
+		return min;
+	}
+
+	private static String text(Map<String, String> args, String name, int maxLength) {
+		String value = args.get(name);
+		if (value == null || value.isEmpty())
+			throw new IllegalArgumentException("Missing argument: " + name);
+		if (value.length() > maxLength)
+			throw new IllegalArgumentException(name + " cannot exceed " + maxLength + " characters");
+		return value;
+	}
+
+	private static int number(Map<String, String> args, String name) {
+		String value = args.get(name);
+		if (value == null)
+			throw new IllegalArgumentException("Missing argument: " + name);
+		try{
+			return Integer.parseInt(value.trim());
+		}catch(NumberFormatException e){
+			throw new IllegalArgumentException(name + " must be an integer: " + value);
+		}
+	}
+
+	private static String date(Map<String, String> args) {
+		String value = args.get("date");
+		return value == null ? LocalDate.now().toString() : value;
+	}
+}//end ShopCommands
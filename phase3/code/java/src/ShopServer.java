@@ -0,0 +1,223 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * One process serving the whole shop over HTTP: the MechanicShop operations
+ * as JSON endpoints backed by the shared connection pool, on the JDK's
+ * built-in HTTP server.  Requests are handled on virtual threads where the
+ * JVM has them (see TaskExecutors).  Arguments are taken from the query
+ * string and from a form-encoded request body.
+ *
+ *   POST /customers        fname lname phone address      -> {"id":...}
+ *   GET  /customers/search term [limit] [offset]          -> {"columns":[...],"rows":[...]}
+ *   POST /mechanics        fname lname experience         -> {"id":...}
+ *   POST /cars             vin make model year
+ *   POST /ownerships       customer vin
+ *   POST /requests         customer vin odometer [complain] [date] -> {"id":rid}
+ *   POST /closed-requests  rid mid bill [comment] [date]  -> {"id":wid}
+ *   GET  /reports/6 ... /reports/10 [min] [k] [from] [to] -> {"columns":[...],"rows":[...]}
+ *   GET  /reports/6 ... /reports/10 page [after] [min]    -> {"columns":[...],"rows":[...],"next":...}
+ *   GET  /stats            per-endpoint latency, pool, cache and query metrics
+ *
+ * Bad arguments answer 400, constraint violations 409, other database
+ * errors 500.  Every endpoint records its latency in its own histogram.
+ *
+ * Usage: java ShopServer <dbname> <port> <user> [--listen port]
+ *
+ */
+public class ShopServer {
+	//endpoint path -> ShopCommands command
+	private static final Map<String, String> ROUTES = new LinkedHashMap<String, String>();
+	static {
+		ROUTES.put("/customers", "add-customer");
+		ROUTES.put("/customers/search", "search-customers");
+		ROUTES.put("/mechanics", "add-mechanic");
+		ROUTES.put("/cars", "add-car");
+		ROUTES.put("/ownerships", "add-ownership");
+		ROUTES.put("/requests", "insert-request");
+		ROUTES.put("/closed-requests", "close-request");
+		for (int report = 6; report <= 10; ++report)
+			ROUTES.put("/reports/" + report, "report-" + report);
+	}
+
+	private final MechanicShop _esql;
+	private final ShopCommands _commands;
+	private final Map<String, LatencyHistogram> _latencies = new LinkedHashMap<String, LatencyHistogram>();
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+
+	public ShopServer(MechanicShop esql, int port) throws IOException {
+		this._esql = esql;
+		this._commands = new ShopCommands(esql);
+		for (String path : ROUTES.keySet())
+			_latencies.put(path, new LatencyHistogram());
+		this._server = HttpServer.create(new InetSocketAddress(port), 0);
+		this._executor = TaskExecutors.newPerTaskExecutor("shop-http",
+			Integer.getInteger("mechanicshop.server.threads", 4 * esql.poolMaxSize()));
+		_server.setExecutor(_executor);
+		for (final String path : ROUTES.keySet())
+			_server.createContext(path, exchange -> handle(exchange, path));
+		_server.createContext("/stats", this::stats);
+	}
+
+	public void start() {
+		_server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waiting up to the given delay for the ones in
+	 * flight to finish.
+	 */
+	public void stop(int delaySeconds) {
+		_server.stop(delaySeconds);
+		_executor.shutdown();
+	}
+
+	private void handle(HttpExchange exchange, String path) throws IOException {
+		long start = System.nanoTime();
+		try{
+			//contexts match by prefix; only the exact path is an endpoint
+			if (!exchange.getRequestURI().getPath().equals(path)){
+				send(exchange, 404, error("Not found"));
+				return;
+			}
+			String command = ROUTES.get(path);
+			boolean report = ShopCommands.isReport(command);
+			if (!exchange.getRequestMethod().equals(report ? "GET" : "POST")){
+				send(exchange, 405, error("Use " + (report ? "GET" : "POST")));
+				return;
+			}
+			Map<String, String> args = arguments(exchange);
+			try{
+				if (ShopCommands.isPaged(command, args)){
+					ReportPages.Page page = _commands.reportPage(command, args);
+					send(exchange, 200, new Json().field("ok", true).table(page.rows).field("next", page.next));
+					return;
+				}
+				if (report){
+					send(exchange, 200, new Json().field("ok", true).table(_commands.report(command, args)));
+					return;
+				}
+				UnitOfWork uow = _esql.beginUnitOfWork();
+				boolean returnsKey = _commands.queue(uow, command, args);
+				uow.flush();
+				Json result = new Json().field("ok", true);
+				if (returnsKey) result.field("id", uow.generatedKeys().get(0));
+				send(exchange, 200, result);
+			}catch(IllegalArgumentException e){
+				send(exchange, 400, error(e.getMessage()));
+			}catch(SQLException e){
+				//class 23: integrity constraint violation
+				boolean conflict = e.getSQLState() != null && e.getSQLState().startsWith("23");
+				send(exchange, conflict ? 409 : 500, error(e.getMessage()));
+			}
+		}finally{
+			exchange.close();
+			_latencies.get(path).recordSince(start);
+		}
+	}
+
+	private void stats(HttpExchange exchange) throws IOException {
+		try{
+			Json endpoints = new Json();
+			for (Map.Entry<String, LatencyHistogram> e : _latencies.entrySet()){
+				LatencyHistogram h = e.getValue();
+				endpoints.field(e.getKey(), new Json()
+					.field("count", h.count())
+					.field("meanMs", h.meanNanos() / 1e6)
+					.field("p50Ms", h.percentileNanos(50) / 1e6)
+					.field("p99Ms", h.percentileNanos(99) / 1e6)
+					.field("p999Ms", h.percentileNanos(99.9) / 1e6)
+					.field("maxMs", h.maxNanos() / 1e6));
+			}
+			send(exchange, 200, new Json()
+				.field("virtualThreads", TaskExecutors.virtualThreadsAvailable())
+				.field("endpoints", endpoints)
+				.field("pool", _esql.poolStats())
+				.field("caches", _esql.referenceCacheStats())
+				.field("queries", _esql.metrics().dump()));
+		}finally{
+			exchange.close();
+		}
+	}
+
+	private static Json error(String message) {
+		return new Json().field("ok", false).field("error", message);
+	}
+
+	private static void send(HttpExchange exchange, int status, Json body) throws IOException {
+		byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	//query string arguments, overridden by form-encoded body arguments
+	private static Map<String, String> arguments(HttpExchange exchange) throws IOException {
+		Map<String, String> args = new HashMap<String, String>();
+		decode(exchange.getRequestURI().getRawQuery(), args);
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			body.write(buffer, 0, n);
+		decode(body.toString("UTF-8"), args);
+		return args;
+	}
+
+	private static void decode(String form, Map<String, String> args) throws UnsupportedEncodingException {
+		if (form == null || form.isEmpty()) return;
+		for (String pair : form.split("&")){
+			if (pair.isEmpty()) continue;
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			args.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + ShopServer.class.getName() +
+				" <dbname> <port> <user> [--listen port]");
+			return;
+		}
+		int listen = 8080;
+		for (int i = 3; i < args.length; ++i){
+			if (args[i].equals("--listen")) listen = Integer.parseInt(args[++i]);
+		}
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "", System.err);
+			final MechanicShop shop = esql;
+			final ShopServer server = new ShopServer(shop, listen);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				server.stop(5);
+				shop.cleanup();
+			}));
+			server.start();
+			System.out.println("Serving on port " + listen + (TaskExecutors.virtualThreadsAvailable()
+				? " (virtual threads)" : " (platform thread pool)"));
+		}catch(Exception e){
+			System.err.println("Could not start the server: " + e.getMessage());
+			if (esql != null) esql.cleanup();
+		}
+	}
+}//end ShopServer
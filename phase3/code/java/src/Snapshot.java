@@ -0,0 +1,408 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A table saved to a file column by column, for reports that run without
+ * the database.  Columns are stored the way ColumnarResult keeps them: INT
+ * columns (e.g. bill, odometer, year) as fixed-width ints, LONG columns as
+ * longs, and every other column (e.g. make, model, comment, dates) as int
+ * codes into a dictionary of its distinct values.
+ *
+ * A snapshot is read by mapping the file into memory.  The columns are
+ * views of the mapping, so opening one costs no more than reading its
+ * header, values are read straight from the page cache, and strings are
+ * decoded only when asked for; grouping on dictionary codes needs no
+ * decoding at all.  A snapshot file is limited to 2GB.
+ *
+ * Layout, little-endian, with every column's data starting on an 8-byte
+ * boundary:
+ *
+ *   header     magic "MSNP", version, row count, column count
+ *   directory  per column: type, name length, name (UTF-8), data offset
+ *   data       per column: null bitmap length in words and the bitmap, then
+ *                INT     an int per row
+ *                LONG    a long per row
+ *                STRING  dictionary size, size + 1 offsets into the value
+ *                        bytes, the UTF-8 bytes of every value, then an int
+ *                        code per row, -1 for null
+ *
+ * Readers reject files of another version, so the layout can change by
+ * bumping VERSION.
+ *
+ */
+public class Snapshot {
+	static final int MAGIC = 0x504E534D;
+	static final int VERSION = 1;
+
+	private final String[] _names;
+	private final int[] _types;
+	private final int _rowCount;
+	//per column: null bitmap, int values or codes, long values
+	private final LongBuffer[] _nulls;
+	private final IntBuffer[] _ints;
+	private final LongBuffer[] _longs;
+	//per STRING column: value byte offsets and the value bytes
+	private final IntBuffer[] _offsets;
+	private final ByteBuffer[] _bytes;
+
+	private Snapshot(int rowCount, int columnCount) {
+		this._rowCount = rowCount;
+		this._names = new String[columnCount];
+		this._types = new int[columnCount];
+		this._nulls = new LongBuffer[columnCount];
+		this._ints = new IntBuffer[columnCount];
+		this._longs = new LongBuffer[columnCount];
+		this._offsets = new IntBuffer[columnCount];
+		this._bytes = new ByteBuffer[columnCount];
+	}
+
+	/**
+	 * Maps a snapshot file.  The mapping stays valid until the snapshot is
+	 * garbage collected; the file is not held open.
+	 *
+	 * @throws java.io.IOException when the file cannot be read or is not a
+	 *         snapshot of this version
+	 */
+	public static Snapshot open(File file) throws IOException {
+		MappedByteBuffer map;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is larger than 2GB");
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			channel.close();
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		try{
+			if (map.getInt() != MAGIC) throw new IOException(file + " is not a snapshot");
+			int version = map.getInt();
+			if (version != VERSION) throw new IOException(file + " is a version " + version + " snapshot; version " + VERSION + " is supported");
+			Snapshot snapshot = new Snapshot(map.getInt(), map.getInt());
+			int[] dataOffsets = new int[snapshot._names.length];
+			for (int col = 0; col < dataOffsets.length; ++col){
+				snapshot._types[col] = map.getInt();
+				byte[] name = new byte[map.getInt()];
+				map.get(name);
+				align(map);
+				snapshot._names[col] = new String(name, StandardCharsets.UTF_8);
+				dataOffsets[col] = (int) map.getLong();
+			}
+			for (int col = 0; col < dataOffsets.length; ++col)
+				snapshot.mapColumn(map, col, dataOffsets[col]);
+			return snapshot;
+		}catch(RuntimeException e){
+			//a truncated or overwritten file shows up as a buffer underflow or a bad position
+			throw new IOException(file + " is corrupt: " + e, e);
+		}
+	}
+
+	private void mapColumn(MappedByteBuffer map, int col, int offset) throws IOException {
+		map.position(offset);
+		int words = (int) map.getLong();
+		_nulls[col] = slice(map, 8 * words).asLongBuffer();
+		switch (_types[col]){
+			case ColumnarResult.INT:
+				_ints[col] = slice(map, 4 * _rowCount).asIntBuffer();
+				break;
+			case ColumnarResult.LONG:
+				_longs[col] = slice(map, 8 * _rowCount).asLongBuffer();
+				break;
+			case ColumnarResult.STRING:
+				int size = (int) map.getLong();
+				_offsets[col] = slice(map, 4 * (size + 1)).asIntBuffer();
+				_bytes[col] = slice(map, _offsets[col].get(size));
+				align(map);
+				_ints[col] = slice(map, 4 * _rowCount).asIntBuffer();
+				break;
+			default:
+				throw new IOException("Unknown type " + _types[col] + " of column " + _names[col]);
+		}
+	}
+
+	//the next length bytes of the buffer as a buffer of their own; the buffer moves past them
+	private static ByteBuffer slice(ByteBuffer map, int length) {
+		ByteBuffer part = map.slice();
+		part.limit(length);
+		part.order(ByteOrder.LITTLE_ENDIAN);
+		map.position(map.position() + length);
+		return part;
+	}
+
+	private static void align(ByteBuffer map) {
+		map.position((map.position() + 7) & ~7);
+	}
+
+	public int rowCount() {
+		return _rowCount;
+	}
+
+	public int columnCount() {
+		return _names.length;
+	}
+
+	public String columnName(int col) {
+		return _names[col];
+	}
+
+	/**
+	 * @param name the column label, case-insensitive
+	 * @return the column index, or -1 when there is no such column
+	 */
+	public int columnIndex(String name) {
+		for (int i = 0; i < _names.length; ++i)
+			if (_names[i].equalsIgnoreCase(name)) return i;
+		return -1;
+	}
+
+	/**
+	 * @return the column index
+	 * @throws java.lang.IllegalArgumentException when there is no such column
+	 */
+	public int column(String name) {
+		int col = columnIndex(name);
+		if (col < 0) throw new IllegalArgumentException("The snapshot has no column " + name);
+		return col;
+	}
+
+	/**
+	 * @return INT, LONG or STRING, as in ColumnarResult
+	 */
+	public int columnType(int col) {
+		return _types[col];
+	}
+
+	public boolean isNull(int row, int col) {
+		LongBuffer nulls = _nulls[col];
+		return (row >>> 6) < nulls.limit() && (nulls.get(row >>> 6) & (1L << row)) != 0;
+	}
+
+	/**
+	 * @return the value of an INT column, 0 when null
+	 */
+	public int getInt(int row, int col) {
+		if (_types[col] != ColumnarResult.INT)
+			throw new IllegalArgumentException("Column " + _names[col] + " is not an INT column");
+		return _ints[col].get(row);
+	}
+
+	/**
+	 * @return the value of an INT or LONG column, 0 when null
+	 */
+	public long getLong(int row, int col) {
+		if (_types[col] == ColumnarResult.LONG) return _longs[col].get(row);
+		if (_types[col] == ColumnarResult.INT) return _ints[col].get(row);
+		throw new IllegalArgumentException("Column " + _names[col] + " is not a numeric column");
+	}
+
+	/**
+	 * @return the value of any column as a string, null when null
+	 */
+	public String getString(int row, int col) {
+		if (isNull(row, col)) return null;
+		switch (_types[col]){
+			case ColumnarResult.INT: return Integer.toString(_ints[col].get(row));
+			case ColumnarResult.LONG: return Long.toString(_longs[col].get(row));
+			default: return dictionaryValue(col, _ints[col].get(row));
+		}
+	}
+
+	/**
+	 * @return the dictionary code of a STRING column value, -1 when null.
+	 * Equal values share a code, so callers can group on codes directly.
+	 */
+	public int getCode(int row, int col) {
+		stringColumn(col);
+		return _ints[col].get(row);
+	}
+
+	/**
+	 * @return the number of distinct values of a STRING column
+	 */
+	public int dictionarySize(int col) {
+		return stringColumn(col).limit() - 1;
+	}
+
+	/**
+	 * @return the value a dictionary code of a STRING column stands for
+	 */
+	public String dictionaryValue(int col, int code) {
+		IntBuffer offsets = stringColumn(col);
+		int start = offsets.get(code);
+		byte[] value = new byte[offsets.get(code + 1) - start];
+		ByteBuffer bytes = _bytes[col].duplicate();
+		bytes.position(start);
+		bytes.get(value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	private IntBuffer stringColumn(int col) {
+		if (_types[col] == ColumnarResult.STRING) return _offsets[col];
+		throw new IllegalArgumentException("Column " + _names[col] + " is not a STRING column");
+	}
+
+	/**
+	 * Saves a result as a snapshot file.  The file is written under a
+	 * temporary name and renamed into place, so readers never map a
+	 * half-written snapshot.
+	 *
+	 * @return the size of the file in bytes
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public static long write(ColumnarResult result, File file) throws IOException {
+		File partial = new File(file.getPath() + ".partial");
+		FileChannel channel = FileChannel.open(partial.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		long size;
+		try{
+			Output out = new Output(channel);
+			int numCol = result.columnCount();
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(result.rowCount());
+			out.putInt(numCol);
+			long[] offsetPositions = new long[numCol];
+			for (int col = 0; col < numCol; ++col){
+				byte[] name = result.columnName(col).getBytes(StandardCharsets.UTF_8);
+				out.putInt(result.columnType(col));
+				out.putInt(name.length);
+				out.putBytes(name);
+				out.align();
+				offsetPositions[col] = out.position();
+				out.putLong(0);
+			}
+			long[] dataOffsets = new long[numCol];
+			for (int col = 0; col < numCol; ++col){
+				dataOffsets[col] = out.position();
+				writeColumn(out, result, col);
+			}
+			size = out.position();
+			if (size > Integer.MAX_VALUE) throw new IOException(file + " would be larger than 2GB");
+			out.flush();
+			for (int col = 0; col < numCol; ++col)
+				out.patchLong(offsetPositions[col], dataOffsets[col]);
+			channel.force(true);
+		}finally{
+			channel.close();
+		}
+		if (!partial.renameTo(file)){
+			file.delete();
+			if (!partial.renameTo(file)) throw new IOException("Could not rename " + partial + " to " + file);
+		}
+		return size;
+	}
+
+	private static void writeColumn(Output out, ColumnarResult result, int col) throws IOException {
+		int rows = result.rowCount();
+		int words = 0;
+		for (int row = 0; row < rows; ++row)
+			if (result.isNull(row, col)) words = (row >>> 6) + 1;
+		long[] nulls = new long[words];
+		for (int row = 0; row < rows; ++row)
+			if (result.isNull(row, col)) nulls[row >>> 6] |= 1L << row;
+		out.putLong(words);
+		for (long word : nulls)
+			out.putLong(word);
+
+		switch (result.columnType(col)){
+			case ColumnarResult.INT:
+				for (int row = 0; row < rows; ++row)
+					out.putInt(result.getInt(row, col));
+				break;
+			case ColumnarResult.LONG:
+				for (int row = 0; row < rows; ++row)
+					out.putLong(result.getLong(row, col));
+				break;
+			default:
+				int size = result.dictionarySize(col);
+				byte[][] values = new byte[size][];
+				out.putLong(size);
+				int offset = 0;
+				out.putInt(offset);
+				for (int code = 0; code < size; ++code){
+					values[code] = result.dictionaryValue(col, code).getBytes(StandardCharsets.UTF_8);
+					offset += values[code].length;
+					out.putInt(offset);
+				}
+				for (byte[] value : values)
+					out.putBytes(value);
+				out.align();
+				for (int row = 0; row < rows; ++row)
+					out.putInt(result.getCode(row, col));
+				break;
+		}
+		out.align();
+	}
+
+	/**
+	 * Buffered little-endian output to a file channel that knows its position.
+	 */
+	private static class Output {
+		private final FileChannel _channel;
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		private long _flushed = 0;
+
+		Output(FileChannel channel) {
+			this._channel = channel;
+		}
+
+		long position() {
+			return _flushed + _buffer.position();
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			_buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			_buffer.putLong(value);
+		}
+
+		void putBytes(byte[] value) throws IOException {
+			if (value.length > _buffer.capacity()){
+				flush();
+				ByteBuffer whole = ByteBuffer.wrap(value);
+				while (whole.hasRemaining())
+					_flushed += _channel.write(whole);
+				return;
+			}
+			ensure(value.length);
+			_buffer.put(value);
+		}
+
+		//pads with zeros to the next multiple of 8
+		void align() throws IOException {
+			int padding = (int) (-position() & 7);
+			ensure(padding);
+			for (int i = 0; i < padding; ++i)
+				_buffer.put((byte) 0);
+		}
+
+		void patchLong(long position, long value) throws IOException {
+			ByteBuffer patch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			patch.putLong(value).flip();
+			while (patch.hasRemaining())
+				_channel.write(patch, position + patch.position());
+		}
+
+		void flush() throws IOException {
+			_buffer.flip();
+			while (_buffer.hasRemaining())
+				_flushed += _channel.write(_buffer);
+			_buffer.clear();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (_buffer.remaining() < bytes) flush();
+		}
+	}
+}//end Snapshot
@@ -0,0 +1,124 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Exports the MechanicShop tables to Snapshot files, one per table, so
+ * reports can run off the database (see SnapshotReports).  Every table is
+ * read in one read-only REPEATABLE READ transaction, so the files agree
+ * with each other, and in key order, so readers can binary search the key.
+ *
+ * Usage: java SnapshotExport <dbname> <port> <user> <output dir>
+ *
+ */
+public class SnapshotExport {
+	/**
+	 * A table, the column its rows are ordered by and the file it is saved to.
+	 */
+	static class Table {
+		final String name;
+		final String key;
+		final String file;
+
+		Table(String name, String key) {
+			this.name = name;
+			this.key = key;
+			this.file = name.toLowerCase() + ".snap";
+		}
+	}
+
+	static final Table[] TABLES = {
+		new Table("Customer", "id"),
+		new Table("Mechanic", "id"),
+		new Table("Car", "vin"),
+		new Table("Owns", "ownership_id"),
+		new Table("Service_Request", "rid"),
+		new Table("Closed_Request", "wid")
+	};
+
+	private static final int FETCH_SIZE = 10000;
+
+	private final MechanicShop _esql;
+	private final File _outputDir;
+
+	public SnapshotExport(MechanicShop esql, File outputDir) {
+		this._esql = esql;
+		this._outputDir = outputDir;
+	}
+
+	/**
+	 * Writes a snapshot of every table, replacing older ones.
+	 *
+	 * @throws java.sql.SQLException when a table could not be read
+	 * @throws java.io.IOException when a file could not be written
+	 */
+	public void export() throws SQLException, IOException {
+		if (!_outputDir.isDirectory() && !_outputDir.mkdirs())
+			throw new IOException("Could not create " + _outputDir);
+		PooledConnection pc = _esql.borrowConnection();
+		try{
+			Connection connection = pc.connection();
+			connection.setAutoCommit(false);
+			connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			connection.setReadOnly(true);
+			try{
+				for (Table t : TABLES)
+					export(connection, t);
+				connection.commit();
+			}catch(SQLException e){
+				connection.rollback();
+				throw e;
+			}finally{
+				connection.setReadOnly(false);
+				connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+				connection.setAutoCommit(true);
+			}
+		}catch(SQLException e){
+			pc.markBroken();
+			throw e;
+		}finally{
+			pc.close();
+		}
+	}
+
+	private void export(Connection connection, Table t) throws SQLException, IOException {
+		long start = System.nanoTime();
+		ColumnarResult rows;
+		//with autocommit off the driver reads through a cursor instead of buffering the table twice
+		Statement stmt = connection.createStatement();
+		try{
+			stmt.setFetchSize(FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery("SELECT * FROM " + t.name + " ORDER BY " + t.key);
+			try{
+				rows = ColumnarResult.from(rs);
+			}finally{
+				rs.close();
+			}
+		}finally{
+			stmt.close();
+		}
+		long bytes = Snapshot.write(rows, new File(_outputDir, t.file));
+		System.out.printf("%-16s %10d rows %12d bytes in %.2f s%n",
+			t.name, rows.rowCount(), bytes, (System.nanoTime() - start) / 1e9);
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 4){
+			System.err.println("Usage: java [-classpath <classpath>] " + SnapshotExport.class.getName() +
+				" <dbname> <port> <user> <output dir>");
+			return;
+		}
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "", System.err);
+			new SnapshotExport(esql, new File(args[3])).export();
+		}catch(Exception e){
+			System.err.println("Snapshot export failed: " + e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}//end SnapshotExport
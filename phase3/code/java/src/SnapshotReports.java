@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports 8, 9 and 10 computed from the Snapshot files SnapshotExport
+ * writes, without a database connection.  The results have the same
+ * columns and rows as the reports in MechanicShop as of the export;
+ * reports 9 and 10 are aggregated from the service history itself, as the
+ * summary tables are not exported.
+ *
+ * Joins never decode a string more than once per distinct value: each
+ * distinct Service_Request.car_vin is resolved to its Car row once, and
+ * rids and customer ids are found by binary search, as the snapshots are
+ * in key order.
+ *
+ * Usage: java SnapshotReports <snapshot dir> report-8 | report-9 [k] | report-10
+ *
+ */
+public class SnapshotReports {
+	private final Snapshot _customers;
+	private final Snapshot _cars;
+	private final Snapshot _requests;
+	private final Snapshot _closed;
+	//Car row of every Service_Request.car_vin code, -1 for vins not in Car
+	private final int[] _carOfVin;
+
+	/**
+	 * @param dir the directory SnapshotExport wrote to
+	 * @throws java.io.IOException when a snapshot is missing or unreadable
+	 */
+	public SnapshotReports(File dir) throws IOException {
+		this._customers = Snapshot.open(new File(dir, "customer.snap"));
+		this._cars = Snapshot.open(new File(dir, "car.snap"));
+		this._requests = Snapshot.open(new File(dir, "service_request.snap"));
+		this._closed = Snapshot.open(new File(dir, "closed_request.snap"));
+
+		int vin = _cars.column("vin");
+		Map<String, Integer> carRows = new HashMap<String, Integer>(_cars.rowCount() * 2);
+		for (int row = 0; row < _cars.rowCount(); ++row)
+			carRows.put(_cars.getString(row, vin), row);
+		int carVin = _requests.column("car_vin");
+		this._carOfVin = new int[_requests.dictionarySize(carVin)];
+		for (int code = 0; code < _carOfVin.length; ++code){
+			Integer row = carRows.get(_requests.dictionaryValue(carVin, code));
+			_carOfVin[code] = row == null ? -1 : row;
+		}
+	}
+
+	/**
+	 * Report 8: the cars built before 1995 serviced with fewer than 50000
+	 * miles, in rid order.
+	 */
+	public ColumnarResult carsBefore1995With50000Miles() {
+		int carVin = _requests.column("car_vin");
+		int odometer = _requests.column("odometer");
+		int make = _cars.column("make");
+		int model = _cars.column("model");
+		int year = _cars.column("year");
+		ColumnarResult.Builder result = new ColumnarResult.Builder(
+			new String[]{ "make", "model", "year" },
+			new int[]{ ColumnarResult.STRING, ColumnarResult.STRING, ColumnarResult.INT });
+		for (int row = 0; row < _requests.rowCount(); ++row){
+			if (_requests.getInt(row, odometer) >= 50000) continue;
+			int car = _carOfVin[_requests.getCode(row, carVin)];
+			if (car < 0 || _cars.getInt(car, year) >= 1995) continue;
+			result.addRow(_cars.getString(car, make), _cars.getString(car, model), _cars.getInt(car, year));
+		}
+		return result.build();
+	}
+
+	/**
+	 * Report 9: the k cars with the most service requests.
+	 */
+	public ColumnarResult kCarsWithMostServices(int k) {
+		if (k <= 0) throw new IllegalArgumentException("k must be greater than 0");
+		int carVin = _requests.column("car_vin");
+		final int[] counts = new int[_carOfVin.length];
+		for (int row = 0; row < _requests.rowCount(); ++row)
+			++counts[_requests.getCode(row, carVin)];
+
+		//most requests first, then vin descending in the "C" collation, as the summary table index orders them
+		final String[] vins = new String[counts.length];
+		List<Integer> codes = new ArrayList<Integer>();
+		for (int code = 0; code < counts.length; ++code){
+			if (counts[code] == 0 || _carOfVin[code] < 0) continue;
+			vins[code] = _requests.dictionaryValue(carVin, code);
+			codes.add(code);
+		}
+		Collections.sort(codes, (a, b) -> counts[a] != counts[b]
+			? Integer.compare(counts[b], counts[a]) : vins[b].compareTo(vins[a]));
+
+		int make = _cars.column("make");
+		int model = _cars.column("model");
+		ColumnarResult.Builder result = new ColumnarResult.Builder(
+			new String[]{ "make", "model", "num_requests" },
+			new int[]{ ColumnarResult.STRING, ColumnarResult.STRING, ColumnarResult.INT });
+		for (int i = 0; i < Math.min(k, codes.size()); ++i){
+			int code = codes.get(i);
+			int car = _carOfVin[code];
+			result.addRow(_cars.getString(car, make), _cars.getString(car, model), counts[code]);
+		}
+		return result.build();
+	}
+
+	/**
+	 * Report 10: the customers with closed requests in descending order of
+	 * their total bill.
+	 */
+	public ColumnarResult customersByTotalBill() {
+		int closedRid = _closed.column("rid");
+		int bill = _closed.column("bill");
+		int rid = _requests.column("rid");
+		int customerOfRequest = _requests.column("customer_id");
+		int id = _customers.column("id");
+
+		//totals per Customer row
+		final long[] totals = new long[_customers.rowCount()];
+		boolean[] billed = new boolean[totals.length];
+		for (int row = 0; row < _closed.rowCount(); ++row){
+			if (_closed.isNull(row, bill)) continue;
+			int request = find(_requests, rid, _closed.getInt(row, closedRid));
+			if (request < 0) continue;
+			int customer = find(_customers, id, _requests.getInt(request, customerOfRequest));
+			if (customer < 0) continue;
+			totals[customer] += _closed.getInt(row, bill);
+			billed[customer] = true;
+		}
+
+		//total descending, then customer id descending; Customer rows are in id order
+		List<Integer> customers = new ArrayList<Integer>();
+		for (int row = 0; row < totals.length; ++row)
+			if (billed[row]) customers.add(row);
+		Collections.sort(customers, (a, b) -> totals[a] != totals[b]
+			? Long.compare(totals[b], totals[a]) : Integer.compare(b, a));
+
+		int fname = _customers.column("fname");
+		int lname = _customers.column("lname");
+		ColumnarResult.Builder result = new ColumnarResult.Builder(
+			new String[]{ "fname", "lname", "total" },
+			new int[]{ ColumnarResult.STRING, ColumnarResult.STRING, ColumnarResult.LONG });
+		for (int customer : customers)
+			result.addRow(_customers.getString(customer, fname), _customers.getString(customer, lname), totals[customer]);
+		return result.build();
+	}
+
+	//the row whose INT key column holds the key, -1 when none; rows are in key order
+	private static int find(Snapshot table, int col, int key) {
+		int lo = 0, hi = table.rowCount() - 1;
+		while (lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int value = table.getInt(mid, col);
+			if (value < key) lo = mid + 1;
+			else if (value > key) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2){
+			System.err.println("Usage: java [-classpath <classpath>] " + SnapshotReports.class.getName() +
+				" <snapshot dir> report-8 | report-9 [k] | report-10");
+			return;
+		}
+		try{
+			long start = System.nanoTime();
+			SnapshotReports reports = new SnapshotReports(new File(args[0]));
+			ColumnarResult result;
+			switch (args[1]){
+				case "report-8": result = reports.carsBefore1995With50000Miles(); break;
+				case "report-9": result = reports.kCarsWithMostServices(args.length > 2 ? Integer.parseInt(args[2]) : 10); break;
+				case "report-10": result = reports.customersByTotalBill(); break;
+				default:
+					System.err.println("Unknown report: " + args[1]);
+					return;
+			}
+			int rows = MechanicShop.printColumns(result);
+			System.err.printf("total row(s): %d in %.3f s%n", rows, (System.nanoTime() - start) / 1e9);
+		}catch(Exception e){
+			System.err.println("Snapshot report failed: " + e.getMessage());
+		}
+	}
+}//end SnapshotReports
@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of PreparedStatements for one physical
+ * connection, keyed by SQL text.  Reusing the same PreparedStatement lets the
+ * driver switch to a named server-side statement, so repeated lookups and
+ * inserts skip parsing and planning on the server.  Statements evicted from
+ * the cache are closed.
+ *
+ */
+public class StatementCache {
+	//prefixes the cache key of statements prepared by prepareReturningKeys
+	private static final String GENERATED_KEYS = "\u0000keys\u0000";
+
+	private final Connection _connection;
+	private final Map<String, PreparedStatement> _statements;
+
+	/**
+	 * @param connection the connection the statements are prepared on
+	 * @param capacity maximum number of statements kept open
+	 */
+	public StatementCache(Connection connection, final int capacity) {
+		this._connection = connection;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= capacity) return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached statement for the given SQL, preparing it on first
+	 * use.  The statement belongs to the cache and must not be closed by the caller.
+	 *
+	 * @param sql the SQL text with '?' placeholders
+	 * @return a prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = _statements.get(sql);
+		if (ps == null || ps.isClosed()){
+			ps = _connection.prepareStatement(sql);
+			_statements.put(sql, ps);
+		}else{
+			ps.clearParameters();
+		}
+		return ps;
+	}
+
+	/**
+	 * Like prepare, but for a write ending in RETURNING that is executed as a
+	 * batch: the returned rows are read from getGeneratedKeys() instead of a
+	 * result set.  Cached apart from the statement prepare returns.
+	 *
+	 * @param sql the SQL text with '?' placeholders and a RETURNING clause
+	 * @return a prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+		String key = GENERATED_KEYS + sql;
+		PreparedStatement ps = _statements.get(key);
+		if (ps == null || ps.isClosed()){
+			ps = _connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			_statements.put(key, ps);
+		}else{
+			ps.clearParameters();
+		}
+		return ps;
+	}
+
+	/**
+	 * Drops and closes the cached statements for the given SQL, e.g. after the
+	 * server reported that its cached plan is no longer valid.
+	 */
+	public void evict(String sql) {
+		closeQuietly(_statements.remove(sql));
+		closeQuietly(_statements.remove(GENERATED_KEYS + sql));
+	}
+
+	/**
+	 * Closes every cached statement.
+	 */
+	public void clear() {
+		for (PreparedStatement ps : _statements.values())
+			closeQuietly(ps);
+		_statements.clear();
+	}
+
+	public int size() {
+		return _statements.size();
+	}
+
+	private static void closeQuietly(PreparedStatement ps) {
+		if (ps == null) return;
+		try{
+			ps.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+	}
+}//end StatementCache
@@ -0,0 +1,61 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking JDBC work.  On Java 21 and later every task gets its
+ * own virtual thread (Executors.newVirtualThreadPerTaskExecutor, looked up by
+ * reflection so the code still builds and runs on older JDKs); elsewhere a
+ * fixed pool of daemon platform threads is used instead.  The connection pool
+ * bounds concurrent database work either way.
+ *
+ */
+public class TaskExecutors {
+	private static final Method VIRTUAL_PER_TASK = findVirtualPerTask();
+
+	private TaskExecutors() {
+	}
+
+	/**
+	 * @return true when tasks run on virtual threads
+	 */
+	public static boolean virtualThreadsAvailable() {
+		return VIRTUAL_PER_TASK != null;
+	}
+
+	/**
+	 * Creates an executor that runs each task on its own virtual thread when
+	 * available, otherwise on a fixed pool.
+	 *
+	 * @param name prefix of the fallback pool's thread names
+	 * @param fallbackThreads the size of the fallback pool
+	 */
+	public static ExecutorService newPerTaskExecutor(final String name, int fallbackThreads) {
+		if (VIRTUAL_PER_TASK != null){
+			try{
+				return (ExecutorService) VIRTUAL_PER_TASK.invoke(null);
+			}catch(ReflectiveOperationException e){
+				// fall through to the platform thread pool
+			}
+		}
+		final AtomicInteger counter = new AtomicInteger();
+		return Executors.newFixedThreadPool(fallbackThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	private static Method findVirtualPerTask() {
+		try{
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}catch(NoSuchMethodException e){
+			return null;
+		}
+	}
+}//end TaskExecutors
@@ -0,0 +1,121 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded read-through cache whose entries expire a fixed time after they
+ * were loaded.  When full, the least recently used entry is evicted.  Hits,
+ * misses and evictions are counted.  All methods are thread safe; loads run
+ * outside the lock, so two threads missing on the same key may both load it.
+ *
+ */
+public class TtlCache<K, V> {
+	/**
+	 * Computes the value for a key that is not cached.
+	 */
+	public interface Loader<K, V> {
+		V load(K key) throws SQLException;
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long expiresAt;
+
+		Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final String _name;
+	private final long _ttlNanos;
+	private final Map<K, Entry<V>> _entries;
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	/**
+	 * @param name label used in stats()
+	 * @param capacity maximum number of cached entries
+	 * @param ttlMillis how long an entry stays valid after it was loaded
+	 */
+	public TtlCache(String name, final int capacity, long ttlMillis) {
+		this._name = name;
+		this._ttlNanos = ttlMillis * 1000000L;
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() <= capacity) return false;
+				_evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value for the key, loading and caching it when it is
+	 * missing or expired.
+	 *
+	 * @throws java.sql.SQLException when the loader failed; nothing is cached then
+	 */
+	public V get(K key, Loader<K, V> loader) throws SQLException {
+		long now = System.nanoTime();
+		synchronized (this){
+			Entry<V> e = _entries.get(key);
+			if (e != null){
+				if (now - e.expiresAt < 0){
+					_hits.incrementAndGet();
+					return e.value;
+				}
+				_entries.remove(key);
+			}
+		}
+		_misses.incrementAndGet();
+		V value = loader.load(key);
+		synchronized (this){
+			_entries.put(key, new Entry<V>(value, System.nanoTime() + _ttlNanos));
+		}
+		return value;
+	}
+
+	/**
+	 * Drops the entry for the key, if cached.
+	 */
+	public synchronized void invalidate(K key) {
+		_entries.remove(key);
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void invalidateAll() {
+		_entries.clear();
+	}
+
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	public long hits() {
+		return _hits.get();
+	}
+
+	public long misses() {
+		return _misses.get();
+	}
+
+	public long evictions() {
+		return _evictions.get();
+	}
+
+	/**
+	 * @return name, size, hits, misses, hit ratio and evictions on one line
+	 */
+	public String stats() {
+		long hits = hits();
+		long total = hits + misses();
+		return String.format("%s: size=%d hits=%d misses=%d hitRatio=%.1f%% evictions=%d",
+			_name, size(), hits, misses(), total == 0 ? 0.0 : 100.0 * hits / total, evictions());
+	}
+}//end TtlCache
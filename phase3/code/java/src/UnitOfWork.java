@@ -0,0 +1,137 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects parameterized writes and applies them together: flush() sends
+ * them as JDBC batches inside a single transaction and rolls everything
+ * back if any statement fails.  Nothing reaches the database before flush().
+ * Keys returned by writes ending in RETURNING are available from
+ * generatedKeys() after the flush.  Obtain one from
+ * MechanicShop.beginUnitOfWork().
+ *
+ */
+public class UnitOfWork {
+	private final MechanicShop _esql;
+	private final List<String> _statements = new ArrayList<String>();
+	private final List<Object[]> _params = new ArrayList<Object[]>();
+	//reference cache entries made stale by the queued writes
+	private final List<String> _changedReferences = new ArrayList<String>();
+	private final List<Integer> _generatedKeys = new ArrayList<Integer>();
+	//customers queued by addCustomer, added to the customer search once flushed
+	private final List<AddedCustomer> _addedCustomers = new ArrayList<AddedCustomer>();
+	//indexes in generatedKeys() of the mechanics queued by addMechanic
+	private final List<Integer> _addedMechanics = new ArrayList<Integer>();
+	//queued writes ending in RETURNING, i.e. the number of keys the flush returns
+	private int _returningWrites = 0;
+
+	/**
+	 * A queued customer and the index of its key in generatedKeys().
+	 */
+	private static class AddedCustomer {
+		final int key;
+		final String fname;
+		final String lname;
+		final String phone;
+
+		AddedCustomer(int key, String fname, String lname, String phone) {
+			this.key = key;
+			this.fname = fname;
+			this.lname = lname;
+			this.phone = phone;
+		}
+	}
+
+	UnitOfWork(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Queues a parameterized write.
+	 *
+	 * @param sql the SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return this unit of work
+	 */
+	public UnitOfWork add(String sql, Object... params) {
+		_statements.add(sql);
+		_params.add(params);
+		if (MechanicShop.returnsKey(sql)) ++_returningWrites;
+		return this;
+	}
+
+	public UnitOfWork addCustomer(String fname, String lname, String phone, String address) {
+		_addedCustomers.add(new AddedCustomer(_returningWrites, fname, lname, phone));
+		return add(MechanicShop.INSERT_CUSTOMER, fname, lname, phone, address);
+	}
+
+	public UnitOfWork addMechanic(String fname, String lname, int experience) {
+		//the id is only known after the flush; its cached lookup is dropped then
+		_addedMechanics.add(_returningWrites);
+		return add(MechanicShop.INSERT_MECHANIC, fname, lname, experience);
+	}
+
+	public UnitOfWork addCar(String vin, String make, String model, int year) {
+		_changedReferences.add("car:" + vin);
+		return add(MechanicShop.INSERT_CAR, vin, make, model, year);
+	}
+
+	/**
+	 * @return the number of queued writes
+	 */
+	public int size() {
+		return _statements.size();
+	}
+
+	/**
+	 * @return the keys returned by the RETURNING writes of the last flush, in
+	 *         the order the writes were queued
+	 */
+	public List<Integer> generatedKeys() {
+		return _generatedKeys;
+	}
+
+	/**
+	 * Applies every queued write in one transaction and empties the queue.
+	 * Consecutive writes with the same SQL travel as one JDBC batch.
+	 *
+	 * @return the total number of rows affected
+	 * @throws java.sql.SQLException when a write failed; none of them is applied then
+	 */
+	public int flush() throws SQLException {
+		_generatedKeys.clear();
+		if (_statements.isEmpty()) return 0;
+		try{
+			int rows = _esql.executeInTransaction(_statements, _params, _generatedKeys);
+			for (AddedCustomer customer : _addedCustomers)
+				_esql.customerAdded(_generatedKeys.get(customer.key), customer.fname, customer.lname, customer.phone);
+			for (int key : _addedMechanics)
+				_esql.mechanicAdded(_generatedKeys.get(key));
+			return rows;
+		}catch(SQLException e){
+			_generatedKeys.clear();
+			throw e;
+		}finally{
+			for (String change : _changedReferences)
+				_esql.invalidateReference(change);
+			_statements.clear();
+			_params.clear();
+			_changedReferences.clear();
+			_addedCustomers.clear();
+			_addedMechanics.clear();
+			_returningWrites = 0;
+		}
+	}
+
+	/**
+	 * Drops every queued write without applying it.
+	 */
+	public void discard() {
+		_statements.clear();
+		_params.clear();
+		_changedReferences.clear();
+		_addedCustomers.clear();
+		_addedMechanics.clear();
+		_returningWrites = 0;
+	}
+}//end UnitOfWork
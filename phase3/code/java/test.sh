@@ -0,0 +1,17 @@
+#! /bin/bash
+# Runs the checks under test/.  Checks that need a database, such as
+# ScriptRunnerTest, only run when one is given.
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: ./test.sh flightDB 5432 user
+rm -rf test-bin && mkdir -p test-bin
+javac -cp "lib/postgresql-42.1.4.jar" -d test-bin/ src/*.java test/*.java || exit 1
+DB=""
+if [ -n "$USER" ]; then DB="$DBNAME:$PORT:$USER"; fi
+STATUS=0
+for t in test/*Test.java; do
+	java -Dtest.db=$DB -cp "lib/*:test-bin/" $(basename $t .java) || STATUS=1
+done
+exit $STATUS
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+
+/**
+ * Round trips of the ReportPages cursors.  Needs no database.
+ *
+ * Usage: java ReportPagesTest
+ *
+ */
+public class ReportPagesTest {
+	private static int _failures = 0;
+
+	public static void main(String[] args) {
+		roundTrip("one value", new String[]{ "42" });
+		roundTrip("two values", new String[]{ "17", "1HGCM82633A004352" });
+		roundTrip("null keys", new String[]{ null, "2017-03-01", null });
+		roundTrip("only nulls", new String[]{ null, null });
+		roundTrip("empty value", new String[]{ "", "x" });
+		roundTrip("old separator in a value", new String[]{ "a\u001fb", "\u001f" });
+		roundTrip("marks and digits in a value", new String[]{ "v3:abc", "n", "12:" });
+		roundTrip("multi-byte value", new String[]{ "M\u00fcller", "\u4e2d\u6587", "\ud83d\ude97" });
+		roundTrip("no keys", new String[0]);
+
+		malformed("not base64", "!!!");
+		malformed("unknown mark", encodeText("x"));
+		malformed("missing length", encodeText("v"));
+		malformed("bad length", encodeText("vx:a"));
+		malformed("length past the end", encodeText("v5:abc"));
+		malformed("negative length", encodeText("v-1:abc"));
+
+		if (_failures > 0){
+			System.out.println(_failures + " ReportPages check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("ReportPages checks passed");
+	}
+
+	private static void roundTrip(String name, String[] key) {
+		String cursor = ReportPages.encode(key);
+		String[] decoded = ReportPages.decode(cursor);
+		check(name, Arrays.equals(key, decoded), Arrays.toString(key) + " came back as " + Arrays.toString(decoded));
+		check(name + " (url safe)", cursor.matches("[A-Za-z0-9_-]*"), cursor);
+	}
+
+	private static void malformed(String name, String cursor) {
+		try{
+			String[] key = ReportPages.decode(cursor);
+			check(name, false, "accepted as " + Arrays.toString(key));
+		}catch(IllegalArgumentException e){
+			check(name, e.getMessage().startsWith("Malformed cursor"), e.getMessage());
+		}
+	}
+
+	private static String encodeText(String text) {
+		return java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (ok) return;
+		++_failures;
+		System.out.println("FAILED " + name + ": " + detail);
+	}
+}//end ReportPagesTest
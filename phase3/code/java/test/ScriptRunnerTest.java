@@ -0,0 +1,187 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a one-command script through ScriptRunner in a separate JVM and
+ * checks that every line it writes to standard output is a JSON object.
+ * Needs a database, given as -Dtest.db=<dbname>:<port>:<user>; skipped
+ * without one.
+ *
+ * Usage: java -Dtest.db=<dbname>:<port>:<user> ScriptRunnerTest
+ *
+ */
+public class ScriptRunnerTest {
+	private static int _failures = 0;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String db = System.getProperty("test.db");
+		if (db == null || db.isEmpty()){
+			System.out.println("ScriptRunner checks skipped: no database given");
+			return;
+		}
+		String[] target = db.split(":");
+
+		File script = File.createTempFile("script-test", ".txt");
+		script.deleteOnExit();
+		FileWriter writer = new FileWriter(script);
+		try{
+			writer.write("report-7 min=20\n");
+		}finally{
+			writer.close();
+		}
+
+		ProcessBuilder builder = new ProcessBuilder(
+			new File(System.getProperty("java.home"), "bin/java").getPath(),
+			"-cp", System.getProperty("java.class.path"),
+			"ScriptRunner", target[0], target[1], target[2], script.getPath());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+		List<String> lines = new ArrayList<String>();
+		BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try{
+			String line;
+			while ((line = output.readLine()) != null)
+				lines.add(line);
+		}finally{
+			output.close();
+		}
+		int status = process.waitFor();
+
+		check("exit status", status == 0, "exited with " + status);
+		check("one line per command", lines.size() == 1, lines.size() + " lines: " + lines);
+		for (int i = 0; i < lines.size(); ++i){
+			String error = new Json(lines.get(i)).objectError();
+			check("line " + (i + 1) + " is a JSON object", error == null, error + ": " + lines.get(i));
+		}
+
+		if (_failures > 0){
+			System.out.println(_failures + " ScriptRunner check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("ScriptRunner checks passed");
+	}
+
+	/**
+	 * A strict JSON syntax check of one line, enough to tell whether a
+	 * consumer reading the output line by line could parse it.
+	 */
+	private static class Json {
+		private final String _text;
+		private int _pos = 0;
+
+		Json(String text) {
+			this._text = text;
+		}
+
+		//null when the text is exactly one JSON object, otherwise what is wrong
+		String objectError() {
+			try{
+				space();
+				if (peek() != '{') return "not an object";
+				value();
+				space();
+				if (_pos != _text.length()) return "text after the object at " + _pos;
+				return null;
+			}catch(IllegalArgumentException e){
+				return e.getMessage();
+			}
+		}
+
+		private void value() {
+			space();
+			char c = peek();
+			if (c == '{'){
+				++_pos;
+				space();
+				if (peek() == '}'){ ++_pos; return; }
+				while (true){
+					space();
+					string();
+					space();
+					expect(':');
+					value();
+					space();
+					if (peek() == '}'){ ++_pos; return; }
+					expect(',');
+				}
+			}else if (c == '['){
+				++_pos;
+				space();
+				if (peek() == ']'){ ++_pos; return; }
+				while (true){
+					value();
+					space();
+					if (peek() == ']'){ ++_pos; return; }
+					expect(',');
+				}
+			}else if (c == '"'){
+				string();
+			}else if (_text.startsWith("true", _pos)){
+				_pos += 4;
+			}else if (_text.startsWith("false", _pos)){
+				_pos += 5;
+			}else if (_text.startsWith("null", _pos)){
+				_pos += 4;
+			}else{
+				number();
+			}
+		}
+
+		private void string() {
+			expect('"');
+			while (true){
+				char c = next();
+				if (c == '"') return;
+				if (c < 0x20) throw new IllegalArgumentException("control character in a string at " + (_pos - 1));
+				if (c == '\\'){
+					char e = next();
+					if (e == 'u'){
+						for (int i = 0; i < 4; ++i)
+							if (Character.digit(next(), 16) < 0) throw new IllegalArgumentException("bad \\u escape at " + _pos);
+					}else if ("\"\\/bfnrt".indexOf(e) < 0){
+						throw new IllegalArgumentException("bad escape at " + (_pos - 1));
+					}
+				}
+			}
+		}
+
+		private void number() {
+			int start = _pos;
+			while (_pos < _text.length() && "+-0123456789.eE".indexOf(_text.charAt(_pos)) >= 0)
+				++_pos;
+			if (!_text.substring(start, _pos).matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?"))
+				throw new IllegalArgumentException("bad value at " + start);
+		}
+
+		private void space() {
+			while (_pos < _text.length() && " \t\r\n".indexOf(_text.charAt(_pos)) >= 0)
+				++_pos;
+		}
+
+		private void expect(char c) {
+			if (next() != c) throw new IllegalArgumentException("expected '" + c + "' at " + (_pos - 1));
+		}
+
+		private char peek() {
+			if (_pos >= _text.length()) throw new IllegalArgumentException("unexpected end");
+			return _text.charAt(_pos);
+		}
+
+		private char next() {
+			char c = peek();
+			++_pos;
+			return c;
+		}
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (ok) return;
+		++_failures;
+		System.out.println("FAILED " + name + ": " + detail);
+	}
+}//end ScriptRunnerTest
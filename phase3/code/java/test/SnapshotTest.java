@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Round trips of ColumnarResults through Snapshot files, and the rejection
+ * of files Snapshot cannot read.  Needs no database.
+ *
+ * Usage: java SnapshotTest
+ *
+ */
+public class SnapshotTest {
+	private static final String[] NAMES = { "id", "total", "comment", "stra\u00dfe" };
+	private static final int[] TYPES = { ColumnarResult.INT, ColumnarResult.LONG, ColumnarResult.STRING, ColumnarResult.STRING };
+
+	private static int _failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		//more than 64 rows, so the null bitmaps take several words
+		ColumnarResult.Builder mixed = new ColumnarResult.Builder(NAMES, TYPES);
+		for (int row = 0; row < 150; ++row)
+			mixed.addRow(
+				row % 7 == 0 ? null : row - 75,
+				row % 11 == 0 ? null : (long) row * Integer.MAX_VALUE,
+				row % 5 == 0 ? null : row % 5 == 1 ? "" : "comment " + (row % 13),
+				row % 3 == 0 ? "M\u00fcller" : row % 3 == 1 ? "\u4e2d\u6587 \ud83d\ude97" : null);
+		roundTrip("nulls and multi-byte strings", mixed.build());
+
+		roundTrip("no rows", new ColumnarResult.Builder(NAMES, TYPES).build());
+
+		ColumnarResult.Builder allNull = new ColumnarResult.Builder(NAMES, TYPES);
+		for (int row = 0; row < 70; ++row)
+			allNull.addRow(null, null, null, null);
+		roundTrip("columns of only nulls", allNull.build());
+
+		roundTrip("no columns", new ColumnarResult.Builder(new String[0], new int[0]).build());
+
+		File file = write(mixed.build());
+		patchInt(file, 4, Snapshot.VERSION + 1);
+		rejected("other version", file, "version");
+		patchInt(file, 0, 0);
+		rejected("not a snapshot", file, "not a snapshot");
+		file = write(mixed.build());
+		truncate(file, file.length() / 2);
+		rejected("truncated", file, "corrupt");
+
+		if (_failures > 0){
+			System.out.println(_failures + " Snapshot check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("Snapshot checks passed");
+	}
+
+	private static void roundTrip(String name, ColumnarResult result) throws IOException {
+		Snapshot snapshot = Snapshot.open(write(result));
+		check(name + ": row count", snapshot.rowCount() == result.rowCount(), snapshot.rowCount() + " rows");
+		check(name + ": column count", snapshot.columnCount() == result.columnCount(), snapshot.columnCount() + " columns");
+		if (_failures > 0) return;
+		for (int col = 0; col < result.columnCount(); ++col){
+			String column = name + ": column " + result.columnName(col);
+			check(column + " name", snapshot.columnName(col).equals(result.columnName(col)), snapshot.columnName(col));
+			check(column + " type", snapshot.columnType(col) == result.columnType(col), "type " + snapshot.columnType(col));
+			if (result.columnType(col) == ColumnarResult.STRING){
+				check(column + " dictionary", snapshot.dictionarySize(col) == result.dictionarySize(col),
+					snapshot.dictionarySize(col) + " values instead of " + result.dictionarySize(col));
+				for (int code = 0; code < result.dictionarySize(col); ++code)
+					check(column + " code " + code, snapshot.dictionaryValue(col, code).equals(result.dictionaryValue(col, code)),
+						snapshot.dictionaryValue(col, code));
+			}
+			for (int row = 0; row < result.rowCount(); ++row){
+				String cell = column + " row " + row;
+				check(cell + " null", snapshot.isNull(row, col) == result.isNull(row, col), "isNull " + snapshot.isNull(row, col));
+				String expected = result.getString(row, col);
+				String actual = snapshot.getString(row, col);
+				check(cell, expected == null ? actual == null : expected.equals(actual), actual + " instead of " + expected);
+				if (result.columnType(col) == ColumnarResult.STRING)
+					check(cell + " code", snapshot.getCode(row, col) == result.getCode(row, col), "code " + snapshot.getCode(row, col));
+				else
+					check(cell + " number", snapshot.getLong(row, col) == result.getLong(row, col), "" + snapshot.getLong(row, col));
+			}
+		}
+	}
+
+	private static void rejected(String name, File file, String reason) {
+		try{
+			Snapshot.open(file);
+			check(name, false, "opened");
+		}catch(IOException e){
+			check(name, e.getMessage().contains(reason), e.getMessage());
+		}
+	}
+
+	private static File write(ColumnarResult result) throws IOException {
+		File file = File.createTempFile("snapshot-test", ".snap");
+		file.deleteOnExit();
+		Snapshot.write(result, file);
+		return file;
+	}
+
+	//overwrites the little-endian int at a byte position
+	private static void patchInt(File file, long position, int value) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.seek(position);
+			raf.writeInt(Integer.reverseBytes(value));
+		}finally{
+			raf.close();
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(length);
+		}finally{
+			raf.close();
+		}
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (ok) return;
+		++_failures;
+		System.out.println("FAILED " + name + ": " + detail);
+	}
+}//end SnapshotTest
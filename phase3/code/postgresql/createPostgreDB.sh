@@ -11,3 +11,9 @@ sleep 1
 
 psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/create.sql
 psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < index.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/sequences.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/partition_history.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/billing_totals.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/service_counts.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/fleet_sizes.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/customer_search.sql
@@ -0,0 +1,44 @@
+-----------------------------------------------------------------------
+-- Query plans and timings for reports 6-10.  Run it before and after a
+-- schema or index change, on the same data set, and compare:
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < explain_reports.sql > plans.txt
+-- For scaled data sets see java/generate.sh and java/load.sh.
+-----------------------------------------------------------------------
+\timing on
+
+-- 6. ListCustomersWithBillLessThan100
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT date, comment, bill FROM Closed_Request WHERE bill < 100 GROUP BY date, comment, bill;
+
+-- 7. ListCustomersWithMoreThan20Cars, from the base tables
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.fname, C.lname FROM Customer AS C WHERE 20 < (SELECT COUNT(*) FROM Owns O WHERE C.id = O.customer_id);
+
+-- 7. ListCustomersWithMoreThan20Cars, from Customer_Car_Count (sql/fleet_sizes.sql)
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.fname, C.lname, F.car_count FROM Customer_Car_Count AS F, Customer AS C WHERE C.id = F.customer_id AND F.car_count > 20 ORDER BY F.car_count DESC, F.customer_id;
+
+-- 8. ListCarsBefore1995With50000Milles
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.make, C.model, C.year FROM Car AS C, Service_Request AS S WHERE C.vin = S.car_vin AND S.odometer < 50000 AND C.year < 1995;
+
+-- 9. ListKCarsWithTheMostServices, k = 10, from the base tables
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT make, model, a.num_requests FROM Car c, (SELECT car_vin, COUNT(rid) AS num_requests FROM Service_Request GROUP BY car_vin ) AS a WHERE a.car_vin = c.vin ORDER BY a.num_requests DESC LIMIT 10;
+
+-- 10. ListCustomersInDescendingOrderOfTheirTotalBill, from the base tables
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.fname, C.lname, total FROM Customer AS C,(SELECT SR.customer_id, SUM(CR.bill) AS total FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id) AS B WHERE C.id=B.customer_id ORDER BY B.total DESC;
+
+-- 10. ListCustomersInDescendingOrderOfTheirTotalBill, from Customer_Bill_Total (sql/billing_totals.sql)
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.fname, C.lname, B.total FROM Customer_Bill_Total AS B, Customer AS C WHERE C.id = B.customer_id ORDER BY B.total DESC, B.customer_id DESC;
+
+-- 9. ListKCarsWithTheMostServices, k = 10, from Car_Service_Count (sql/service_counts.sql)
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.make, C.model, S.num_requests FROM Car_Service_Count AS S, Car AS C WHERE C.vin = S.car_vin ORDER BY S.num_requests DESC, S.car_vin COLLATE "C" DESC LIMIT 10;
+
+-- 10. a later page of ListCustomersInDescendingOrderOfTheirTotalBill (ReportPages); should
+-- read the index from the key on, like the first page, instead of skipping rows
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT C.fname, C.lname, B.total, B.customer_id FROM Customer_Bill_Total AS B, Customer AS C WHERE C.id = B.customer_id AND (B.total, B.customer_id) < (500, 250) ORDER BY B.total DESC, B.customer_id DESC LIMIT 51;
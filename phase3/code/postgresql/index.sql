@@ -1 +1,18 @@
-CREATE INDEX vin_index ON Car(vin);
+-- Secondary indexes for the MechanicShop workload.  Primary keys are
+-- indexed by their constraints already, so Car(vin) needs no index here.
+
+-- InsertServiceRequest finds customers through the lower(lname) trigram
+-- index of sql/customer_search.sql; a plain index on lname is never used
+
+-- the cars of a customer (intake, report 7) and the ownership probe on (car_vin, customer_id)
+CREATE INDEX owns_customer_vin_index ON Owns(customer_id, car_vin);
+
+-- joins from Service_Request to Car (reports 8, 9) and to Customer
+CREATE INDEX service_request_car_vin_index ON Service_Request(car_vin);
+CREATE INDEX service_request_customer_id_index ON Service_Request(customer_id);
+
+-- CloseServiceRequest probe and the Closed_Request/Service_Request join of report 10
+CREATE INDEX closed_request_rid_index ON Closed_Request(rid);
+
+-- report 6 range scan on bill < 100
+CREATE INDEX closed_request_bill_index ON Closed_Request(bill);
@@ -0,0 +1,71 @@
+-----------------------------------------------------------------------
+-- Per-customer billing totals for ListCustomersInDescendingOrderOfTheir
+-- TotalBill.  Customer_Bill_Total holds SUM(bill) over the closed requests
+-- of every customer and is kept current by a trigger on Closed_Request,
+-- so the report reads the top of an index instead of joining and
+-- aggregating all of the service history.
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < billing_totals.sql
+-----------------------------------------------------------------------
+DROP TABLE IF EXISTS Customer_Bill_Total CASCADE;
+
+CREATE TABLE Customer_Bill_Total
+(
+	customer_id INTEGER NOT NULL,
+	total BIGINT NOT NULL,
+	closed_count INTEGER NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+-- the report walks this index from the top
+CREATE INDEX customer_bill_total_index ON Customer_Bill_Total(total DESC, customer_id DESC);
+
+-- recomputes every total from scratch, e.g. after a bulk load
+CREATE OR REPLACE FUNCTION refresh_customer_bill_total()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Customer_Bill_Total;
+   INSERT INTO Customer_Bill_Total(customer_id, total, closed_count)
+     SELECT SR.customer_id, SUM(CR.bill), COUNT(*)
+     FROM Closed_Request AS CR, Service_Request AS SR
+     WHERE CR.rid = SR.rid
+     GROUP BY SR.customer_id;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION maintain_customer_bill_total()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   cid INTEGER;
+ BEGIN
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     SELECT customer_id INTO cid FROM Service_Request WHERE rid = OLD.rid;
+     UPDATE Customer_Bill_Total
+       SET total = total - OLD.bill, closed_count = closed_count - 1
+       WHERE customer_id = cid;
+     DELETE FROM Customer_Bill_Total WHERE customer_id = cid AND closed_count = 0;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     SELECT customer_id INTO cid FROM Service_Request WHERE rid = NEW.rid;
+     INSERT INTO Customer_Bill_Total(customer_id, total, closed_count)
+       VALUES (cid, NEW.bill, 1)
+       ON CONFLICT (customer_id) DO UPDATE
+       SET total = Customer_Bill_Total.total + EXCLUDED.total,
+           closed_count = Customer_Bill_Total.closed_count + 1;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER CustomerBillTotalTrigger
+ AFTER INSERT OR DELETE OR UPDATE OF rid, bill
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_customer_bill_total();
+
+SELECT refresh_customer_bill_total();
+ANALYZE Customer_Bill_Total;
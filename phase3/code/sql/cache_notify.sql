@@ -0,0 +1,44 @@
+-----------------------------------------------------------------------
+-- Publishes changes to the reference tables on the channel
+-- mechanicshop_reference as 'table:key', so that MechanicShop processes
+-- started with -Dmechanicshop.cache.listen=true drop their cached copies
+-- of rows changed by other terminals.  The key is the value each cache is
+-- keyed by: Customer.id (the customer search trie rereads the row),
+-- Mechanic.id and Car.vin.
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < cache_notify.sql
+-----------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION notify_reference_change()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'UPDATE' OR TG_OP = 'DELETE' THEN
+     PERFORM pg_notify('mechanicshop_reference', TG_TABLE_NAME || ':' || (to_json(OLD) ->> TG_ARGV[0]));
+   END IF;
+   IF TG_OP = 'UPDATE' OR TG_OP = 'INSERT' THEN
+     PERFORM pg_notify('mechanicshop_reference', TG_TABLE_NAME || ':' || (to_json(NEW) ->> TG_ARGV[0]));
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS CustomerNotifyTrigger ON Customer;
+CREATE TRIGGER CustomerNotifyTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Customer
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_reference_change('id');
+
+DROP TRIGGER IF EXISTS MechanicNotifyTrigger ON Mechanic;
+CREATE TRIGGER MechanicNotifyTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Mechanic
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_reference_change('id');
+
+DROP TRIGGER IF EXISTS CarNotifyTrigger ON Car;
+CREATE TRIGGER CarNotifyTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Car
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_reference_change('vin');
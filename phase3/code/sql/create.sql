@@ -24,18 +24,18 @@ CREATE DOMAIN _YEAR AS int4 CHECK(VALUE >= 1970);
 CREATE TABLE Customer
 (
 	id INTEGER NOT NULL,
-	fname CHAR(32) NOT NULL,
-	lname CHAR(32) NOT NULL,
-	phone CHAR(13) NOT NULL,
-	address CHAR(256) NOT NULL,
+	fname VARCHAR(32) NOT NULL,
+	lname VARCHAR(32) NOT NULL,
+	phone VARCHAR(13) NOT NULL,
+	address VARCHAR(256) NOT NULL,
 	PRIMARY KEY (id)
 );
 
 CREATE TABLE Mechanic
 (
 	id INTEGER NOT NULL,
-	fname CHAR(32) NOT NULL,
-	lname CHAR(32) NOT NULL,
+	fname VARCHAR(32) NOT NULL,
+	lname VARCHAR(32) NOT NULL,
 	experience INTEGER NOT NULL,
 	PRIMARY KEY (id) 
 );
@@ -66,9 +66,9 @@ CREATE TABLE Service_Request
 	rid INTEGER NOT NULL,
 	customer_id INTEGER NOT NULL,
 	car_vin VARCHAR(16) NOT NULL,
-	date CHAR(30) NOT NULL,
+	date DATE NOT NULL,
 	odometer INTEGER NOT NULL,
-	complain CHAR(100),
+	complain VARCHAR(100),
 	PRIMARY KEY (rid),
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
@@ -79,8 +79,8 @@ CREATE TABLE Closed_Request
 	wid INTEGER NOT NULL,
 	rid INTEGER NOT NULL,
 	mid INTEGER NOT NULL,
-	date CHAR(30) NOT NULL,
-	comment CHAR(100),
+	date DATE NOT NULL,
+	comment VARCHAR(100),
 	bill INTEGER NOT NULL,
 	PRIMARY KEY (wid),
 	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
@@ -90,6 +90,8 @@ CREATE TABLE Closed_Request
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
+-- the CSV dates are MM/DD/YYYY HH24:MI
+SET datestyle = 'ISO, MDY';
 
 COPY Customer (
 	id,
@@ -0,0 +1,21 @@
+-----------------------------------------------------------------------
+-- Indexes for the customer search of InsertServiceRequest, which matches
+-- a typed fragment against first name, last name and phone by prefix
+-- (LIKE 'term%') and, for typos, by trigram similarity (the % operator).
+-- Trigram GIN indexes answer both kinds of match, so a search reads the
+-- index instead of scanning Customer.  Names are matched lower-cased.
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < customer_search.sql
+-----------------------------------------------------------------------
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+DROP INDEX IF EXISTS customer_fname_trgm_index;
+DROP INDEX IF EXISTS customer_lname_trgm_index;
+DROP INDEX IF EXISTS customer_phone_trgm_index;
+-- the exact lname lookup these indexes replace is gone
+DROP INDEX IF EXISTS customer_lname_index;
+
+CREATE INDEX customer_fname_trgm_index ON Customer USING gin (lower(fname) gin_trgm_ops);
+CREATE INDEX customer_lname_trgm_index ON Customer USING gin (lower(lname) gin_trgm_ops);
+CREATE INDEX customer_phone_trgm_index ON Customer USING gin (phone gin_trgm_ops);
+
+ANALYZE Customer;
@@ -0,0 +1,64 @@
+-----------------------------------------------------------------------
+-- Per-customer fleet sizes for ListCustomersWithMoreThan20Cars.
+-- Customer_Car_Count holds the number of Owns rows of every customer and
+-- is kept current by a trigger on Owns.  The index on car_count lets the
+-- report read only the customers above its threshold, instead of
+-- counting the cars of every customer with a correlated subquery.
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < fleet_sizes.sql
+-----------------------------------------------------------------------
+DROP TABLE IF EXISTS Customer_Car_Count CASCADE;
+
+CREATE TABLE Customer_Car_Count
+(
+	customer_id INTEGER NOT NULL,
+	car_count INTEGER NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+-- the report range-scans this index from the top down to its threshold
+CREATE INDEX customer_car_count_index ON Customer_Car_Count(car_count DESC, customer_id);
+
+-- recomputes every count from scratch, e.g. after a bulk load
+CREATE OR REPLACE FUNCTION refresh_customer_car_count()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Customer_Car_Count;
+   INSERT INTO Customer_Car_Count(customer_id, car_count)
+     SELECT customer_id, COUNT(*)
+     FROM Owns
+     GROUP BY customer_id;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION maintain_customer_car_count()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     UPDATE Customer_Car_Count
+       SET car_count = car_count - 1
+       WHERE customer_id = OLD.customer_id;
+     DELETE FROM Customer_Car_Count WHERE customer_id = OLD.customer_id AND car_count = 0;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     INSERT INTO Customer_Car_Count(customer_id, car_count)
+       VALUES (NEW.customer_id, 1)
+       ON CONFLICT (customer_id) DO UPDATE
+       SET car_count = Customer_Car_Count.car_count + 1;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER CustomerCarCountTrigger
+ AFTER INSERT OR DELETE OR UPDATE OF customer_id
+ ON Owns
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_customer_car_count();
+
+SELECT refresh_customer_car_count();
+ANALYZE Customer_Car_Count;
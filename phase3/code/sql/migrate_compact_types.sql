@@ -0,0 +1,39 @@
+-----------------------------------------------------------------------
+-- Converts a database created by an earlier create.sql to the compact
+-- column types: blank-padded CHAR(n) text becomes VARCHAR(n) and the
+-- CHAR(30) dates become DATE.  Run it once against an existing database:
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < migrate_compact_types.sql
+-----------------------------------------------------------------------
+BEGIN;
+
+-- the shipped data holds dates as MM/DD/YYYY HH24:MI, the application wrote YYYY-MM-DD
+SET LOCAL datestyle = 'ISO, MDY';
+
+ALTER TABLE Customer
+	ALTER COLUMN fname TYPE VARCHAR(32),
+	ALTER COLUMN lname TYPE VARCHAR(32),
+	ALTER COLUMN phone TYPE VARCHAR(13),
+	ALTER COLUMN address TYPE VARCHAR(256);
+
+ALTER TABLE Mechanic
+	ALTER COLUMN fname TYPE VARCHAR(32),
+	ALTER COLUMN lname TYPE VARCHAR(32);
+
+ALTER TABLE Service_Request
+	ALTER COLUMN date TYPE DATE USING CAST(rtrim(date) AS DATE),
+	ALTER COLUMN complain TYPE VARCHAR(100);
+
+ALTER TABLE Closed_Request
+	ALTER COLUMN date TYPE DATE USING CAST(rtrim(date) AS DATE),
+	ALTER COLUMN comment TYPE VARCHAR(100);
+
+-- Car(vin) is the primary key; this index only duplicated it
+DROP INDEX IF EXISTS vin_index;
+
+COMMIT;
+
+-- rewritten tables need fresh statistics
+ANALYZE Customer;
+ANALYZE Mechanic;
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
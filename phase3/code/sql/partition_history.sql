@@ -0,0 +1,167 @@
+-----------------------------------------------------------------------
+-- Service history partitioned by month.  Moves Service_Request and
+-- Closed_Request into tables range-partitioned on their DATE column, one
+-- partition per calendar month plus a default partition for dates no
+-- month partition covers, so date-windowed reports read only the months
+-- they ask for and old months can be detached or dropped whole.  Every
+-- partition gets the secondary indexes of index.sql and a BRIN index on
+-- date.  Needs PostgreSQL 12 or later; run it after sequences.sql, on a
+-- new or an existing database (the rows are copied over):
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < partition_history.sql
+--
+-- A primary key of a partitioned table has to include the partition key,
+-- so the keys become (rid, date) and (wid, date).  rid and wid stay
+-- unique because they come from their sequences.  For the same reason
+-- Closed_Request.rid can no longer be a foreign key to Service_Request;
+-- the ClosedRequestRidTrigger below checks new and changed Closed_Request
+-- rows instead, and the ServiceRequestRidTrigger refuses to delete or
+-- renumber a request closed requests still refer to.  Unlike a foreign
+-- key the triggers take no locks, so a closed request inserted while its
+-- request is deleted by another transaction can still slip through, and
+-- TRUNCATE Service_Request is not checked at all.
+--
+-- New months need their partitions before rows for them arrive; run
+--   SELECT create_history_partitions(CURRENT_DATE, CURRENT_DATE + 365);
+-- once a month or so.  Rows of months without a partition go to the
+-- default partition, which must be emptied before that month's partition
+-- can be created.
+-----------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION create_history_partitions(first_day DATE, last_day DATE)
+ RETURNS void AS
+ $BODY$
+ DECLARE
+   first_of_month DATE := date_trunc('month', first_day)::date;
+ BEGIN
+   WHILE first_of_month <= last_day LOOP
+     EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF Service_Request FOR VALUES FROM (%L) TO (%L)',
+       'service_request_' || to_char(first_of_month, 'YYYY_MM'), first_of_month, (first_of_month + interval '1 month')::date);
+     EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF Closed_Request FOR VALUES FROM (%L) TO (%L)',
+       'closed_request_' || to_char(first_of_month, 'YYYY_MM'), first_of_month, (first_of_month + interval '1 month')::date);
+     first_of_month := (first_of_month + interval '1 month')::date;
+   END LOOP;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION check_closed_request_rid()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = NEW.rid) THEN
+     RAISE EXCEPTION 'insert or update on table "closed_request" violates foreign key: rid % is not present in table "service_request"', NEW.rid
+       USING ERRCODE = 'foreign_key_violation';
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION check_service_request_rid_referenced()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'UPDATE' AND NEW.rid = OLD.rid THEN
+     RETURN NULL;
+   END IF;
+   -- VOLATILE, so the query sees the statement's own changes; a row moved
+   -- to another partition by a change of date still has its rid
+   IF EXISTS (SELECT 1 FROM Closed_Request WHERE rid = OLD.rid)
+      AND NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = OLD.rid) THEN
+     RAISE EXCEPTION 'update or delete on table "service_request" violates foreign key on table "closed_request": rid % is still referenced', OLD.rid
+       USING ERRCODE = 'foreign_key_violation';
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+BEGIN;
+
+ALTER TABLE Closed_Request RENAME TO Closed_Request_Unpartitioned;
+ALTER TABLE Service_Request RENAME TO Service_Request_Unpartitioned;
+
+CREATE TABLE Service_Request
+(
+	LIKE Service_Request_Unpartitioned INCLUDING DEFAULTS,
+	PRIMARY KEY (rid, date),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE Closed_Request
+(
+	LIKE Closed_Request_Unpartitioned INCLUDING DEFAULTS,
+	PRIMARY KEY (wid, date),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE service_request_default PARTITION OF Service_Request DEFAULT;
+CREATE TABLE closed_request_default PARTITION OF Closed_Request DEFAULT;
+
+-- a month partition for every month with history, and for the year ahead
+SELECT create_history_partitions(
+  LEAST(CURRENT_DATE, (SELECT MIN(date) FROM Service_Request_Unpartitioned), (SELECT MIN(date) FROM Closed_Request_Unpartitioned)),
+  GREATEST(CURRENT_DATE + 365, (SELECT MAX(date) FROM Service_Request_Unpartitioned), (SELECT MAX(date) FROM Closed_Request_Unpartitioned)));
+
+INSERT INTO Service_Request SELECT * FROM Service_Request_Unpartitioned;
+INSERT INTO Closed_Request SELECT * FROM Closed_Request_Unpartitioned;
+
+-- the key sequences of sequences.sql move with their columns instead of being dropped with the old tables
+DO $$
+BEGIN
+  IF EXISTS (SELECT 1 FROM pg_class WHERE relname = 'service_request_rid_seq') THEN
+    ALTER SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
+  END IF;
+  IF EXISTS (SELECT 1 FROM pg_class WHERE relname = 'closed_request_wid_seq') THEN
+    ALTER SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+  END IF;
+END $$;
+
+DROP TABLE Closed_Request_Unpartitioned;
+DROP TABLE Service_Request_Unpartitioned;
+
+-- the indexes of index.sql, created on every partition
+CREATE INDEX service_request_car_vin_index ON Service_Request(car_vin);
+CREATE INDEX service_request_customer_id_index ON Service_Request(customer_id);
+CREATE INDEX closed_request_rid_index ON Closed_Request(rid);
+CREATE INDEX closed_request_bill_index ON Closed_Request(bill);
+
+-- rows arrive roughly in date order, so a block range index on date stays small and selective
+CREATE INDEX service_request_date_index ON Service_Request USING brin (date);
+CREATE INDEX closed_request_date_index ON Closed_Request USING brin (date);
+
+CREATE TRIGGER ClosedRequestRidTrigger
+ AFTER INSERT OR UPDATE OF rid
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE check_closed_request_rid();
+
+CREATE TRIGGER ServiceRequestRidTrigger
+ AFTER DELETE OR UPDATE OF rid
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE check_service_request_rid_referenced();
+
+-- the summary table triggers went with the old tables; recreate those already installed
+DO $$
+BEGIN
+  IF EXISTS (SELECT 1 FROM pg_proc WHERE proname = 'maintain_customer_bill_total') THEN
+    CREATE TRIGGER CustomerBillTotalTrigger
+     AFTER INSERT OR DELETE OR UPDATE OF rid, bill
+     ON Closed_Request
+     FOR EACH ROW
+     EXECUTE PROCEDURE maintain_customer_bill_total();
+  END IF;
+  IF EXISTS (SELECT 1 FROM pg_proc WHERE proname = 'maintain_car_service_count') THEN
+    CREATE TRIGGER CarServiceCountTrigger
+     AFTER INSERT OR DELETE OR UPDATE OF car_vin
+     ON Service_Request
+     FOR EACH ROW
+     EXECUTE PROCEDURE maintain_car_service_count();
+  END IF;
+END $$;
+
+COMMIT;
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
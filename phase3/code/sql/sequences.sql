@@ -0,0 +1,42 @@
+-----------------------------------------------------------------------
+-- Server-generated keys.  Each surrogate key column draws its default
+-- from a sequence, so inserts omit the key and get it back through
+-- RETURNING in the same round trip instead of probing for a free id.
+-- CACHE 20 lets every session reserve 20 values at a time, so concurrent
+-- intake terminals do not contend on the sequence (ids may have gaps).
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < sequences.sql
+-----------------------------------------------------------------------
+DROP SEQUENCE IF EXISTS customer_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS mechanic_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS owns_ownership_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS service_request_rid_seq CASCADE;
+DROP SEQUENCE IF EXISTS closed_request_wid_seq CASCADE;
+
+CREATE SEQUENCE customer_id_seq CACHE 20 OWNED BY Customer.id;
+CREATE SEQUENCE mechanic_id_seq CACHE 20 OWNED BY Mechanic.id;
+CREATE SEQUENCE owns_ownership_id_seq CACHE 20 OWNED BY Owns.ownership_id;
+CREATE SEQUENCE service_request_rid_seq CACHE 20 OWNED BY Service_Request.rid;
+CREATE SEQUENCE closed_request_wid_seq CACHE 20 OWNED BY Closed_Request.wid;
+
+ALTER TABLE Customer ALTER COLUMN id SET DEFAULT nextval('customer_id_seq');
+ALTER TABLE Mechanic ALTER COLUMN id SET DEFAULT nextval('mechanic_id_seq');
+ALTER TABLE Owns ALTER COLUMN ownership_id SET DEFAULT nextval('owns_ownership_id_seq');
+ALTER TABLE Service_Request ALTER COLUMN rid SET DEFAULT nextval('service_request_rid_seq');
+ALTER TABLE Closed_Request ALTER COLUMN wid SET DEFAULT nextval('closed_request_wid_seq');
+
+-- moves every sequence past the largest key in its table, e.g. after loading
+-- rows that carry their own keys
+CREATE OR REPLACE FUNCTION sync_key_sequences()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   PERFORM setval('customer_id_seq', COALESCE((SELECT MAX(id) FROM Customer), 0) + 1, false);
+   PERFORM setval('mechanic_id_seq', COALESCE((SELECT MAX(id) FROM Mechanic), 0) + 1, false);
+   PERFORM setval('owns_ownership_id_seq', COALESCE((SELECT MAX(ownership_id) FROM Owns), 0) + 1, false);
+   PERFORM setval('service_request_rid_seq', COALESCE((SELECT MAX(rid) FROM Service_Request), 0) + 1, false);
+   PERFORM setval('closed_request_wid_seq', COALESCE((SELECT MAX(wid) FROM Closed_Request), 0) + 1, false);
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+SELECT sync_key_sequences();
@@ -0,0 +1,68 @@
+-----------------------------------------------------------------------
+-- Per-car service counts for ListKCarsWithTheMostServices.
+-- Car_Service_Count holds COUNT(*) over the service requests of every car
+-- and is kept current by a trigger on Service_Request.  The index on
+-- (num_requests DESC, car_vin DESC) keeps the cars in leaderboard order,
+-- so the report reads the first k entries of the index instead of
+-- aggregating all of the service history and sorting it.  Ties are broken
+-- on car_vin in the "C" collation, byte order, whatever the database
+-- collation, so ParallelReports and SnapshotReports, which compare vins in
+-- Java, return the same cars.
+--   psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < service_counts.sql
+-----------------------------------------------------------------------
+DROP TABLE IF EXISTS Car_Service_Count CASCADE;
+
+CREATE TABLE Car_Service_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	num_requests INTEGER NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+
+-- the report walks this index from the top
+CREATE INDEX car_service_count_index ON Car_Service_Count(num_requests DESC, car_vin COLLATE "C" DESC);
+
+-- recomputes every count from scratch, e.g. after a bulk load
+CREATE OR REPLACE FUNCTION refresh_car_service_count()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Car_Service_Count;
+   INSERT INTO Car_Service_Count(car_vin, num_requests)
+     SELECT car_vin, COUNT(*)
+     FROM Service_Request
+     GROUP BY car_vin;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION maintain_car_service_count()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+     UPDATE Car_Service_Count
+       SET num_requests = num_requests - 1
+       WHERE car_vin = OLD.car_vin;
+     DELETE FROM Car_Service_Count WHERE car_vin = OLD.car_vin AND num_requests = 0;
+   END IF;
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+     INSERT INTO Car_Service_Count(car_vin, num_requests)
+       VALUES (NEW.car_vin, 1)
+       ON CONFLICT (car_vin) DO UPDATE
+       SET num_requests = Car_Service_Count.num_requests + 1;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER CarServiceCountTrigger
+ AFTER INSERT OR DELETE OR UPDATE OF car_vin
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_car_service_count();
+
+SELECT refresh_car_service_count();
+ANALYZE Car_Service_Count;